@@ -19,3 +19,6 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# Glide modules are looked up by name from the manifest
+-keep public class * implements com.bumptech.glide.module.GlideModule
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager;
+
+import android.app.Application;
+
+import com.prodbymozart.workmanager.memory.MemoryGovernor;
+import com.prodbymozart.workmanager.metrics.MetricsReport;
+
+/**
+ * Sets up what has to live as long as the process.
+ */
+public class BlurApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Shrink caches and budgets when the system runs low on memory
+        registerComponentCallbacks(new MemoryGovernor(this));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // The UI was just hidden, which closes a session worth of cache lookups
+        if (level == TRIM_MEMORY_UI_HIDDEN) MetricsReport.log();
+    }
+}
@@ -27,9 +27,26 @@ public class Constants {
     public static final int NOTIFICATION_ID = 1;
     public static final String IMAGE_MANIPULATION_WORK_NAME = "image_manipulation_work";
     public static final String OUTPUT_PATH = "blur_filter_outputs";
+    public static final long OUTPUT_MAX_BYTES = 64 * 1024 * 1024;
     public static final String KEY_IMAGE_URI = "KEY_IMAGE_URI";
+    public static final String KEY_IMAGE_URIS = "KEY_IMAGE_URIS";
     public static final String KEY_BLUR_ITERATION = "KEY_BLUR_ITERATION";
     public static final String KEY_SHOW_NOTIFICATION = "KEY_SHOW_NOTIFICATION";
+    public static final String KEY_BLUR_ENGINE = "KEY_BLUR_ENGINE";
+    public static final String KEY_FILTER_CHAIN = "KEY_FILTER_CHAIN";
+    public static final String KEY_LANE = "KEY_LANE";
+    public static final String KEY_JOB_ID = "KEY_JOB_ID";
+    public static final String KEY_BLUR_LEVEL = "KEY_BLUR_LEVEL";
+    public static final String KEY_BLUR_MASK = "KEY_BLUR_MASK";
+
+    // Blur engines selectable through KEY_BLUR_ENGINE
+    public static final int BLUR_ENGINE_RENDERSCRIPT = 0;
+    public static final int BLUR_ENGINE_CPU_PACKED = 1;
+    public static final int BLUR_ENGINE_CPU_PLANAR = 2;
+
+    // Read ahead for jobs over several images, see KEY_IMAGE_URIS
+    public static final int PREFETCH_DEPTH = 2;
+    public static final long PREFETCH_BYTE_BUDGET = 32 * 1024 * 1024;
 
     public static final String SAVE_IMAGE = "OUTPUT";
     public static final long DELAY_TIME_MILLIS = 3000;
@@ -29,13 +29,15 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RadioGroup;
 
-import androidx.work.Data;
 import androidx.work.WorkStatus;
-import com.bumptech.glide.Glide;
 import com.prodbymozart.workmanager.R;
+import com.prodbymozart.workmanager.metrics.StartupTrace;
+import com.prodbymozart.workmanager.preview.PreviewCache;
 import com.prodbymozart.workmanager.workers.WorkerUtils;
 
 import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URI;
+import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URIS;
+import static com.prodbymozart.workmanager.Constants.KEY_JOB_ID;
 
 public class BlurActivity extends AppCompatActivity {
 
@@ -43,14 +45,29 @@ public class BlurActivity extends AppCompatActivity {
     private ImageView mImageView;
     private ProgressBar mProgressBar;
     private Button mGoButton, mOutputButton, mCancelButton;
+    private StartupTrace mStartupTrace;
+
+    /**
+     * Id of the last job WorkManager reported as finished. Progress of that job arriving late
+     * from the ProgressBus is ignored.
+     */
+    private String mFinishedJobId;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // WorkManager is only looked up once the first frame is drawn
+        mStartupTrace = StartupTrace.begin(this,
+                () -> mViewModel.connectStatus(mStartupTrace::markInteractive));
         setContentView(R.layout.activity_blur);
 
-        // Get the ViewModel
+        // Get the ViewModel. If the process was gone, it picks the job up again from the saved
+        // job id.
         mViewModel = ViewModelProviders.of(this).get(BlurViewModel.class);
+        if (savedInstanceState != null) {
+            mViewModel.restoreJob(savedInstanceState.getString(KEY_JOB_ID));
+        }
 
         // Get all of the Views
         mImageView = findViewById(R.id.image_view);
@@ -61,10 +78,14 @@ public class BlurActivity extends AppCompatActivity {
 
         // Image uri should be stored in the ViewModel; put it there then display
         Intent intent = getIntent();
-        String imageUriExtra = intent.getStringExtra(KEY_IMAGE_URI);
-        mViewModel.setImageUri(imageUriExtra);
+        String[] imageUrisExtra = intent.getStringArrayExtra(KEY_IMAGE_URIS);
+        if (imageUrisExtra != null) {
+            mViewModel.setImageUris(imageUrisExtra);
+        } else {
+            mViewModel.setImageUri(intent.getStringExtra(KEY_IMAGE_URI));
+        }
         if (mViewModel.getImageUri() != null) {
-            Glide.with(this).load(mViewModel.getImageUri()).into(mImageView);
+            PreviewCache.load(this, mViewModel.getImageUri(), mImageView);
         }
 
         // Set up ClickListeners
@@ -86,34 +107,74 @@ public class BlurActivity extends AppCompatActivity {
             mViewModel.cancelWork();
         });
 
-        // Define Observer for mViewModel to show work status.
-        mViewModel.getOutputStatus().observe(this, listOfWorkStatuses -> {
+        // Define Observer for mViewModel to show the progress of the current job. Every update
+        // is the whole state of that one job, so there is nothing to scan. How the job ends is
+        // shown from WorkManager below.
+        mViewModel.getProgress().observe(this, progress -> {
+            if (progress == null || progress.getState().isFinished()) return;
+            if (progress.getJobId().equals(mFinishedJobId)) return;
+
+            showWorkInProgress();
+            showProgress(progress.getStep(), progress.getSteps());
+        });
+
+        // Define Observer for mViewModel to show how the current job ended. WorkManager knows
+        // this even for jobs that finished while the process was gone.
+        mViewModel.getJobStatus().observe(this, listOfWorkStatuses -> {
             // If there are no matching work statuses, do nothing
             if (listOfWorkStatuses == null || listOfWorkStatuses.isEmpty()) return;
 
-            // We only care about the one output status. Every continuation has only one worker
-            // tagged SAVE_IMAGE
+            // Every job has only one worker tagged with its id, the save at the end
             final WorkStatus workStatus = listOfWorkStatuses.get(0);
-            final boolean finished = workStatus.getState().isFinished();
-
-            if (!finished) {
+            if (!workStatus.getState().isFinished()) {
                 showWorkInProgress();
-            } else {
-                showWorkFinished();
+                return;
+            }
 
-                Data outputData = workStatus.getOutputData();
-                String outputImageUri = outputData.getString(KEY_IMAGE_URI, "");
+            mFinishedJobId = mViewModel.getJobId();
+            showWorkFinished();
 
-                // If there is an output file show "See File" button
-                if (!TextUtils.isEmpty(outputImageUri)) {
-                    WorkerUtils.makeStatusNotification("Work Was Completed! :)", this);
-                    mViewModel.setOutputUri(outputImageUri);
-                    mOutputButton.setVisibility(View.VISIBLE);
-                }
+            String outputImageUri = workStatus.getOutputData().getString(KEY_IMAGE_URI, null);
+
+            // If there is an output file show "See File" button
+            if (!TextUtils.isEmpty(outputImageUri)) {
+                WorkerUtils.makeStatusNotification("Work Was Completed! :)", this);
+                mViewModel.setOutputUri(outputImageUri);
+                mOutputButton.setVisibility(View.VISIBLE);
+
+                // Show the result. The preview is keyed by content, so a re-blurred output
+                // never shows a stale image.
+                PreviewCache.load(this, mViewModel.getOutputUri(), mImageView);
             }
         });
     }
 
+    /**
+     * Save the id of the current job, so its outcome can still be shown if the process is
+     * recreated
+     *
+     * @param outState ~ {@link Bundle}
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(KEY_JOB_ID, mViewModel.getJobId());
+    }
+
+    /**
+     * Shows how many steps of the current job are done
+     *
+     * @param step ~ Number of steps done so far
+     * @param steps ~ Total number of steps, or 0 if unknown
+     */
+    private void showProgress(int step, int steps) {
+        mProgressBar.setIndeterminate(steps <= 0);
+        if (steps > 0) {
+            mProgressBar.setMax(steps);
+            mProgressBar.setProgress(step);
+        }
+    }
+
     /**
      * Shows and hides views for when the Activity is processing an image
      */
@@ -16,10 +16,22 @@
 
 package com.prodbymozart.workmanager.activities.blur;
 
+import android.app.Application;
+import android.arch.lifecycle.AndroidViewModel;
 import android.arch.lifecycle.LiveData;
-import android.arch.lifecycle.ViewModel;
+import android.arch.lifecycle.MediatorLiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
+import android.util.Log;
 
 import androidx.work.Constraints;
 import androidx.work.Data;
@@ -31,34 +43,177 @@ import androidx.work.WorkStatus;
 import com.prodbymozart.workmanager.Constants;
 import com.prodbymozart.workmanager.workers.BlurWorker;
 import com.prodbymozart.workmanager.workers.CleanupWorker;
+import com.prodbymozart.workmanager.workers.FilterWorker;
 import com.prodbymozart.workmanager.workers.SaveWorker;
+import com.prodbymozart.workmanager.workers.blur.MaskedBlur;
+import com.prodbymozart.workmanager.workers.core.JobProgress;
+import com.prodbymozart.workmanager.workers.core.LaneScheduler;
+import com.prodbymozart.workmanager.workers.core.ProgressBus;
+import com.prodbymozart.workmanager.workers.core.SchedulingPolicy;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.prodbymozart.workmanager.Constants.IMAGE_MANIPULATION_WORK_NAME;
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_LEVEL;
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_MASK;
+import static com.prodbymozart.workmanager.Constants.KEY_FILTER_CHAIN;
 import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URI;
+import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URIS;
+import static com.prodbymozart.workmanager.Constants.KEY_JOB_ID;
+import static com.prodbymozart.workmanager.Constants.KEY_LANE;
 import static com.prodbymozart.workmanager.Constants.KEY_SHOW_NOTIFICATION;
 import static com.prodbymozart.workmanager.Constants.SAVE_IMAGE;
 
-public class BlurViewModel extends ViewModel {
+public class BlurViewModel extends AndroidViewModel {
+    private static final String TAG = BlurViewModel.class.getSimpleName();
 
     private Uri mImageUri;
+    private List<Uri> mImageUris = Collections.emptyList();
     private Uri mOutputUri;
+
+    /**
+     * Only looked up when it is first needed, see {@link #getWorkManager()}
+     */
     private WorkManager mWorkManager;
 
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Runs the work that has to happen before a job can be enqueued, e.g. reading image sizes
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
     /**
      * {@link LiveData}
      *
-     * Live data that listens to status updates by the tag {@link Constants#SAVE_IMAGE}
+     * Progress of the current job, see {@link #getProgress()}
      */
-    private LiveData<List<WorkStatus>> mSavedWorkStatus;
+    private final MutableLiveData<JobProgress> mProgress = new MutableLiveData<>();
+    private final ProgressBus.Listener mProgressListener = mProgress::postValue;
+    private String mJobId;
 
     /**
-     * Constructor.
+     * {@link LiveData}
+     *
+     * WorkManager's status of the save that ends the current job, see {@link #getJobStatus()}
      */
-    public BlurViewModel() {
-        mWorkManager = WorkManager.getInstance();
-        mSavedWorkStatus = mWorkManager.getStatusesByTag(SAVE_IMAGE);
+    private final MediatorLiveData<List<WorkStatus>> mJobStatus = new MediatorLiveData<>();
+    private LiveData<List<WorkStatus>> mJobStatusSource;
+
+    private boolean mConnected;
+    private boolean mConnecting;
+
+    /**
+     * Constructor. Nothing touches WorkManager or its database here, so creating the ViewModel
+     * doesn't hold back the first frame.
+     *
+     * @param application ~ The application, used to read images
+     */
+    public BlurViewModel(@NonNull Application application) {
+        super(application);
+    }
+
+    /**
+     * Look up the WorkManager handle off the main thread and start observing the status of the
+     * current job, if there is one. Call this once the first frame is drawn.
+     *
+     * @param onConnected ~ Run on the main thread once the job status is observed
+     */
+    @MainThread
+    void connectStatus(@NonNull Runnable onConnected) {
+        if (mConnected) {
+            onConnected.run();
+            return;
+        }
+        if (mConnecting) return;
+        mConnecting = true;
+
+        mExecutor.execute(() -> {
+            getWorkManager();
+            mMainHandler.post(() -> {
+                mConnected = true;
+                mConnecting = false;
+                observeJobStatus();
+                onConnected.run();
+            });
+        });
+    }
+
+    /**
+     * Start tracking a new job. Only the progress of the latest job is delivered, so the work
+     * done per update stays the same however many jobs ran before.
+     *
+     * @param steps ~ Number of steps of the job
+     * @return Id of the new job, to pass on to its workers through {@link Constants#KEY_JOB_ID}
+     * and to tag its save with
+     */
+    @MainThread
+    private String startJob(int steps) {
+        final String jobId;
+        synchronized (this) {
+            if (mJobId != null) ProgressBus.getDefault().unsubscribe(mJobId, mProgressListener);
+            jobId = UUID.randomUUID().toString();
+            mJobId = jobId;
+            ProgressBus.getDefault().subscribe(jobId, mProgressListener);
+        }
+
+        // The new chain replaces the one before it, whose workers won't say they are done
+        ProgressBus.getDefault().replace(IMAGE_MANIPULATION_WORK_NAME,
+                new JobProgress(jobId, JobProgress.State.ENQUEUED, 0, steps, null));
+        observeJobStatus();
+        return jobId;
+    }
+
+    /**
+     * Pick up a job that was started before this ViewModel was created, e.g. by an earlier
+     * process whose Activity saved the job id. Does nothing if a job is tracked already.
+     *
+     * @param jobId ~ Id of the job, or null if there was none
+     */
+    @MainThread
+    void restoreJob(@Nullable String jobId) {
+        synchronized (this) {
+            if (jobId == null || mJobId != null) return;
+            mJobId = jobId;
+            ProgressBus.getDefault().subscribe(jobId, mProgressListener);
+        }
+        observeJobStatus();
+    }
+
+    /**
+     * Point {@link #mJobStatus} at the save of the current job. Does nothing until WorkManager
+     * was looked up, see {@link #connectStatus(Runnable)}.
+     */
+    @MainThread
+    private void observeJobStatus() {
+        final String jobId;
+        synchronized (this) {
+            jobId = mJobId;
+        }
+        if (!mConnected || jobId == null) return;
+
+        // The status of the previous job must not show up as the status of the new one
+        if (mJobStatusSource != null) mJobStatus.removeSource(mJobStatusSource);
+        mJobStatus.setValue(null);
+        mJobStatusSource = getWorkManager().getStatusesByTag(jobId);
+        mJobStatus.addSource(mJobStatusSource, mJobStatus::setValue);
+    }
+
+    /**
+     * @return The WorkManager, looked up on first use
+     */
+    private synchronized WorkManager getWorkManager() {
+        if (mWorkManager == null) {
+            mWorkManager = WorkManager.getInstance();
+        }
+        return mWorkManager;
     }
 
     /**
@@ -71,7 +226,7 @@ public class BlurViewModel extends ViewModel {
                 .setInputData(createDataForBlur())
                 .build();
 
-        mWorkManager.enqueue(blurRequest);
+        getWorkManager().enqueue(blurRequest);
     }
 
     /**
@@ -83,7 +238,7 @@ public class BlurViewModel extends ViewModel {
      */
     void applyBlur2() {
         // Using WorkContinuation
-        WorkContinuation continuation = mWorkManager
+        WorkContinuation continuation = getWorkManager()
                 .beginWith(new OneTimeWorkRequest.Builder(CleanupWorker.class).build())
                 .then(new OneTimeWorkRequest.Builder(BlurWorker.class).setInputData(
                         createDataForBlur()).build());
@@ -95,13 +250,58 @@ public class BlurViewModel extends ViewModel {
     /**
      * Create the WorkRequest to apply the blur and save the resulting image
      *
+     * The constraints depend on how expensive the job is, which needs the image dimensions. Those
+     * are read off the main thread before the work is enqueued.
+     *
      * @param blurLevel The amount to blur the image
      */
     void applyBlur3(int blurLevel) {
+        applyBlur3(blurLevel, null);
+    }
+
+    /**
+     * Create the WorkRequest to blur only the parts of the image under a mask, e.g. faces, and
+     * save the resulting image. When several images were picked, all of them are blurred and
+     * saved in one chain, with the same mask.
+     *
+     * @param blurLevel The amount to blur the image
+     * @param mask Rectangles to blur as left, top, right, bottom quadruples, or null to blur the
+     * whole image
+     */
+    void applyBlur3(int blurLevel, @Nullable int[] mask) {
+        final List<Uri> imageUris = mImageUris;
+        final String jobId = startJob(blurLevel);
+        mExecutor.execute(() -> {
+            // The images of a job add up. One image of unknown size makes the whole job unknown.
+            long pixels = 0;
+            for (Uri imageUri : imageUris) {
+                final int[] size = decodeSize(imageUri);
+                if (size[0] <= 0 || size[1] <= 0) {
+                    pixels = 0;
+                    break;
+                }
+
+                // Only the masked part of the image is processed, which is what the cost
+                // depends on
+                int height = size[1];
+                if (mask != null) {
+                    height = (int) Math.ceil(height * MaskedBlur.coverage(size[0], height, mask));
+                }
+                pixels += (long) size[0] * height;
+            }
+            final SchedulingPolicy.Decision decision =
+                    SchedulingPolicy.DEFAULT.decide(pixels, blurLevel);
+            Log.d(TAG, "Scheduling blur of " + imageUris.size() + " images as " + decision);
+            enqueueBlur3(imageUris, jobId, blurLevel, mask, decision);
+        });
+    }
+
+    private void enqueueBlur3(List<Uri> imageUris, String jobId, int blurLevel, int[] mask,
+            SchedulingPolicy.Decision decision) {
         // Creating a WorkContinuation chain that allows multiple workers to be invoked one after
         // another. Initializing it with a CleanWorker.
         WorkContinuation continuation =
-                mWorkManager.beginUniqueWork(IMAGE_MANIPULATION_WORK_NAME,
+                getWorkManager().beginUniqueWork(IMAGE_MANIPULATION_WORK_NAME,
                         ExistingWorkPolicy.REPLACE,
                         new OneTimeWorkRequest.Builder(CleanupWorker.class).build());
 
@@ -116,24 +316,32 @@ public class BlurViewModel extends ViewModel {
             if (i == 0) {
                 // Create a new Data builder and add attributes to it
                 Data.Builder builder = new Data.Builder();
-                if (mImageUri != null) builder.putString(KEY_IMAGE_URI, mImageUri.toString());
+                putImageUris(builder, imageUris);
                 builder.putBoolean(KEY_SHOW_NOTIFICATION, true);
+                builder.putString(KEY_LANE, decision.getLane().name());
+                builder.putString(KEY_JOB_ID, jobId);
+                builder.putInt(KEY_BLUR_LEVEL, blurLevel);
+                if (mask != null) builder.putIntArray(KEY_BLUR_MASK, mask);
                 blurBuilder.setInputData(builder.build());
+
+                // The first blur holds back the whole chain, so the cost based constraints go
+                // here. Cheap jobs get none and start right away.
+                blurBuilder.setConstraints(createBlurConstraints(decision));
             }
 
             continuation = continuation.then((blurBuilder.build()));
         }
 
-        // SaveWorker: Create create a save worker that save the file to your device. You can add
-        // constraints to the worker to only run when they are meet.
+        // SaveWorker: Create create a save worker that save the file to your device. Only ask for
+        // storage when the job is actually going to write a lot.
         Constraints constraints = new Constraints.Builder()
-                .setRequiresCharging(true)
-                .setRequiresStorageNotLow(true).build();
+                .setRequiresStorageNotLow(decision.requiresStorageNotLow()).build();
 
-        // Adding a tag to allow LiveData observers to receives a notification when this worker
-        // is finished.
+        // Tagged with the job id, so the screen can look up how the job ended in WorkManager even
+        // after the process was gone. The steps in between reach it through the ProgressBus.
         OneTimeWorkRequest save = new OneTimeWorkRequest.Builder(SaveWorker.class)
                 .addTag(SAVE_IMAGE)
+                .addTag(jobId)
                 .setConstraints(constraints).build();
 
         // Create WorkContinuation and actually enqueue work.
@@ -143,21 +351,127 @@ public class BlurViewModel extends ViewModel {
         continuation.enqueue();
     }
 
+    /**
+     * Turn a scheduling decision into WorkManager constraints
+     */
+    private static Constraints createBlurConstraints(SchedulingPolicy.Decision decision) {
+        Constraints.Builder builder = new Constraints.Builder()
+                .setRequiresCharging(decision.requiresCharging())
+                .setRequiresBatteryNotLow(decision.requiresBatteryNotLow())
+                .setRequiresStorageNotLow(decision.requiresStorageNotLow());
+
+        // Idle is only available from Marshmallow on
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder.setRequiresDeviceIdle(decision.requiresDeviceIdle());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read the dimensions of an image without decoding its pixels
+     *
+     * @return Width and height, or zeros if they can't be read
+     */
+    @WorkerThread
+    private int[] decodeSize(Uri imageUri) {
+        if (imageUri == null) return new int[]{0, 0};
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = getApplication().getContentResolver().openInputStream(imageUri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Unable to read image size", e);
+        }
+        return new int[]{Math.max(options.outWidth, 0), Math.max(options.outHeight, 0)};
+    }
+
+    /**
+     * Create the WorkRequest to run a chain of filters over the image and save the result
+     *
+     * All of the filters run inside a single {@link FilterWorker}, so the image is only decoded
+     * and written once no matter how long the chain is.
+     *
+     * @param filterChain Filter chain description, e.g. "blur:3,grayscale,vignette:0.6"
+     */
+    void applyFilters(String filterChain) {
+        Data.Builder builder = new Data.Builder();
+        if (mImageUri != null) builder.putString(KEY_IMAGE_URI, mImageUri.toString());
+        builder.putString(KEY_FILTER_CHAIN, filterChain);
+        builder.putBoolean(KEY_SHOW_NOTIFICATION, true);
+        builder.putString(KEY_LANE, LaneScheduler.Lane.INTERACTIVE.name());
+        final String jobId = startJob(1);
+        builder.putString(KEY_JOB_ID, jobId);
+
+        OneTimeWorkRequest filter = new OneTimeWorkRequest.Builder(FilterWorker.class)
+                .setInputData(builder.build()).build();
+        OneTimeWorkRequest save = new OneTimeWorkRequest.Builder(SaveWorker.class)
+                .addTag(SAVE_IMAGE)
+                .addTag(jobId).build();
+
+        getWorkManager().beginUniqueWork(IMAGE_MANIPULATION_WORK_NAME,
+                ExistingWorkPolicy.REPLACE,
+                new OneTimeWorkRequest.Builder(CleanupWorker.class).build())
+                .then(filter)
+                .then(save)
+                .enqueue();
+    }
+
     /**
      * Create data used for the BlurWorker
      */
     private Data createDataForBlur() {
         Data.Builder builder = new Data.Builder();
-        if (mImageUri != null) builder.putString(KEY_IMAGE_URI, mImageUri.toString());
+        putImageUris(builder, mImageUris);
         builder.putBoolean(KEY_SHOW_NOTIFICATION, true);
+
+        // The user is waiting on screen for this one
+        builder.putString(KEY_LANE, LaneScheduler.Lane.INTERACTIVE.name());
         return builder.build();
     }
 
+    /**
+     * Put the images of a job into the input of its first worker. Jobs over several images also
+     * get {@link com.prodbymozart.workmanager.Constants#KEY_IMAGE_URIS}, which every worker of
+     * the chain passes on, so all of them are blurred and saved.
+     */
+    private static void putImageUris(Data.Builder builder, List<Uri> imageUris) {
+        if (imageUris.isEmpty()) return;
+        builder.putString(KEY_IMAGE_URI, imageUris.get(0).toString());
+        if (imageUris.size() > 1) {
+            final String[] uris = new String[imageUris.size()];
+            for (int i = 0; i < uris.length; i++) {
+                uris[i] = imageUris.get(i).toString();
+            }
+            builder.putStringArray(KEY_IMAGE_URIS, uris);
+        }
+    }
+
     /**
      * Cancel work using the work's unique name
      */
     void cancelWork() {
-        mWorkManager.cancelUniqueWork(IMAGE_MANIPULATION_WORK_NAME);
+        getWorkManager().cancelUniqueWork(IMAGE_MANIPULATION_WORK_NAME);
+
+        // Cancelled workers never get to say so themselves
+        final String jobId;
+        synchronized (this) {
+            jobId = mJobId;
+        }
+        if (jobId != null) {
+            ProgressBus.getDefault().publish(
+                    new JobProgress(jobId, JobProgress.State.CANCELLED, 0, 0, null));
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mExecutor.shutdown();
+        synchronized (this) {
+            if (mJobId != null) ProgressBus.getDefault().unsubscribe(mJobId, mProgressListener);
+        }
     }
 
     private Uri uriOrNull(String uriString) {
@@ -172,6 +486,22 @@ public class BlurViewModel extends ViewModel {
      */
     void setImageUri(String uri) {
         mImageUri = uriOrNull(uri);
+        mImageUris = mImageUri == null
+                ? Collections.emptyList() : Collections.singletonList(mImageUri);
+    }
+
+    /**
+     * Setter for {@link BlurViewModel#mImageUris}, for jobs over several images. The first one is
+     * also the {@link BlurViewModel#mImageUri} that is shown.
+     */
+    void setImageUris(String[] uris) {
+        final List<Uri> imageUris = new ArrayList<>();
+        for (String uri : uris) {
+            final Uri imageUri = uriOrNull(uri);
+            if (imageUri != null) imageUris.add(imageUri);
+        }
+        mImageUri = imageUris.isEmpty() ? null : imageUris.get(0);
+        mImageUris = Collections.unmodifiableList(imageUris);
     }
 
     /**
@@ -200,11 +530,35 @@ public class BlurViewModel extends ViewModel {
     }
 
     /**
-     * Getter for {@link BlurViewModel#mSavedWorkStatus}
+     * Id of the current job, for the Activity to save and hand back through
+     * {@link #restoreJob(String)}
+     *
+     * @return {@link BlurViewModel#mJobId}
+     */
+    synchronized String getJobId() {
+        return mJobId;
+    }
+
+    /**
+     * WorkManager's status of the save that ends the current job. The job is over once it is
+     * finished, and if it succeeded its output data holds the saved image. Unlike
+     * {@link #getProgress()} this survives the process.
+     *
+     * @return {@link BlurViewModel#mJobStatus}
+     */
+    LiveData<List<WorkStatus>> getJobStatus() {
+        return mJobStatus;
+    }
+
+    /**
+     * Progress of the latest job started by {@link #applyBlur3(int)} or
+     * {@link #applyFilters(String)}. Each value is the whole state of that job as far as this
+     * process knows, so only the latest one matters. How the job ended is taken from
+     * {@link #getJobStatus()}.
      *
-     * @return {@link BlurViewModel#mSavedWorkStatus}
+     * @return {@link BlurViewModel#mProgress}
      */
-    LiveData<List<WorkStatus>> getOutputStatus() {
-        return mSavedWorkStatus;
+    LiveData<JobProgress> getProgress() {
+        return mProgress;
     }
-}
\ No newline at end of file
+}
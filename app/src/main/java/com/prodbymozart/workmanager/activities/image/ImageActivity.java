@@ -18,6 +18,7 @@ package com.prodbymozart.workmanager.activities.image;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -34,7 +35,10 @@ import android.widget.Toast;
 import com.prodbymozart.workmanager.Constants;
 import com.prodbymozart.workmanager.R;
 import com.prodbymozart.workmanager.activities.blur.BlurActivity;
+import com.prodbymozart.workmanager.metrics.StartupTrace;
+import com.prodbymozart.workmanager.preview.PreviewCache;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -50,10 +54,14 @@ public class ImageActivity extends AppCompatActivity {
     );
 
     private int mPermissionRequestCount;
+    private StartupTrace mStartupTrace;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Nothing is loaded in the background here, so the screen is usable as soon as it shows
+        mStartupTrace = StartupTrace.begin(this, () -> mStartupTrace.markInteractive());
         setContentView(R.layout.activity_select);
 
         if (savedInstanceState != null) {
@@ -69,6 +77,7 @@ public class ImageActivity extends AppCompatActivity {
             Intent chooseIntent = new Intent(
                     Intent.ACTION_PICK,
                     MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+            chooseIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             startActivityForResult(chooseIntent, REQUEST_CODE_IMAGE);
         });
     }
@@ -158,20 +167,32 @@ public class ImageActivity extends AppCompatActivity {
     }
 
     private void handleImageRequestResult(Intent data) {
-        Uri imageUri = null;
+        final List<String> imageUris = new ArrayList<>();
         if (data.getClipData() != null) {
-            imageUri = data.getClipData().getItemAt(0).getUri();
+            final ClipData clipData = data.getClipData();
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                final Uri uri = clipData.getItemAt(i).getUri();
+                if (uri != null) imageUris.add(uri.toString());
+            }
         } else if (data.getData() != null) {
-            imageUri = data.getData();
+            imageUris.add(data.getData().toString());
         }
 
-        if (imageUri == null) {
+        if (imageUris.isEmpty()) {
             Log.e(TAG, "Invalid input image Uri.");
             return;
         }
 
+        // Start decoding the preview now so BlurActivity can show it as soon as it opens. Only
+        // the first image is shown.
+        final Uri imageUri = Uri.parse(imageUris.get(0));
+        PreviewCache.prewarm(this, imageUri);
+
         Intent filterIntent = new Intent(this, BlurActivity.class);
         filterIntent.putExtra(Constants.KEY_IMAGE_URI, imageUri.toString());
+        if (imageUris.size() > 1) {
+            filterIntent.putExtra(Constants.KEY_IMAGE_URIS, imageUris.toArray(new String[0]));
+        }
         startActivity(filterIntent);
     }
 }
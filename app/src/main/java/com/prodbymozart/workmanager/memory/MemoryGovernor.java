@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.memory;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.preview.PreviewCache;
+
+/**
+ * Responds to memory pressure reported by the system by shrinking what the app holds on to.
+ *
+ * - The Glide memory cache and the preview signatures are trimmed at every level, and cleared
+ * once the app is in the background or the system is critically low.
+ * - Byte budgets such as the prefetch budget of multi-image jobs are scaled down through
+ * {@link #scaleBudget(long)} for a while after each report, except when the UI was merely
+ * hidden.
+ *
+ * Every report is counted in a {@code memory.trim.<level>} counter. Steps taken by the workers
+ * when memory actually runs out are counted in {@code memory.degrade.*}.
+ */
+public final class MemoryGovernor implements ComponentCallbacks2 {
+
+    /**
+     * How long a report keeps budgets scaled down. The system only reports pressure, never
+     * that it is gone.
+     */
+    private static final long PRESSURE_MILLIS = 60 * 1000;
+
+    private static volatile int sTrimLevel;
+    private static volatile long sTrimTime;
+
+    private final Context mContext;
+
+    /**
+     * Constructor.
+     *
+     * @param context ~ Any context, the application context is kept
+     */
+    public MemoryGovernor(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Scale a byte budget down to the current memory pressure
+     *
+     * @param bytes ~ Budget when there is no pressure
+     * @return The budget to use now
+     */
+    public static long scaleBudget(long bytes) {
+        if (SystemClock.elapsedRealtime() - sTrimTime > PRESSURE_MILLIS) return bytes;
+
+        final int level = sTrimLevel;
+        if (level == TRIM_MEMORY_UI_HIDDEN) return bytes;
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) return 0;
+        if (level >= TRIM_MEMORY_RUNNING_LOW) return bytes / 4;
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) return bytes / 2;
+        return bytes;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        Metrics.increment("memory.trim." + levelName(level));
+        sTrimLevel = level;
+        sTrimTime = SystemClock.elapsedRealtime();
+
+        final Glide glide = Glide.get(mContext);
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+            // The app is about to be killed or is in line to be, everything has to go
+            glide.clearMemory();
+            PreviewCache.trimMemory(0);
+        } else {
+            glide.trimMemory(level);
+            PreviewCache.trimMemory(level == TRIM_MEMORY_RUNNING_MODERATE ? 0.5f : 0.25f);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Nothing to do, only memory callbacks are of interest
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+                return "running_moderate";
+            case TRIM_MEMORY_RUNNING_LOW:
+                return "running_low";
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                return "running_critical";
+            case TRIM_MEMORY_UI_HIDDEN:
+                return "ui_hidden";
+            case TRIM_MEMORY_BACKGROUND:
+                return "background";
+            case TRIM_MEMORY_MODERATE:
+                return "moderate";
+            case TRIM_MEMORY_COMPLETE:
+                return "complete";
+            default:
+                return String.valueOf(level);
+        }
+    }
+}
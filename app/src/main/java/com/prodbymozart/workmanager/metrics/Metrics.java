@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters used to see what the app is actually doing, e.g. cache hit rates.
+ *
+ * Counters are created on first use and are safe to update from any thread.
+ */
+public final class Metrics {
+
+    private static final ConcurrentHashMap<String, AtomicLong> sCounters =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Upper bounds of the buckets used by {@link #recordTime(String, long)}
+     */
+    private static final long[] TIME_BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    /**
+     * Add one to a counter
+     *
+     * @param name ~ Name of the counter
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Add to a counter
+     *
+     * @param name ~ Name of the counter
+     * @param delta ~ Amount to add
+     */
+    public static void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Set a counter to an absolute value, for gauges such as sizes and depths
+     *
+     * @param name ~ Name of the counter
+     * @param value ~ New value
+     */
+    public static void set(String name, long value) {
+        counter(name).set(value);
+    }
+
+    /**
+     * Record a duration. Keeps {@code name.count}, {@code name.total_ms}, {@code name.max_ms} and
+     * one {@code name.le_<bound>_ms} counter per histogram bucket, so percentiles can be read off
+     * the buckets.
+     *
+     * @param name ~ Name of the timer
+     * @param millis ~ Duration in milliseconds
+     */
+    public static void recordTime(String name, long millis) {
+        increment(name + ".count");
+        add(name + ".total_ms", millis);
+
+        final AtomicLong max = counter(name + ".max_ms");
+        long current;
+        while (millis > (current = max.get()) && !max.compareAndSet(current, millis)) {
+            // Retry until this duration is stored or a longer one was stored meanwhile
+        }
+
+        for (long bound : TIME_BUCKETS_MS) {
+            if (millis <= bound) {
+                increment(name + ".le_" + bound + "_ms");
+                return;
+            }
+        }
+        increment(name + ".le_inf_ms");
+    }
+
+    /**
+     * @param name ~ Name of the counter
+     * @return Current value of the counter, 0 if it was never updated
+     */
+    public static long get(String name) {
+        final AtomicLong counter = sCounters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @param hits ~ Name of the hit counter
+     * @param misses ~ Name of the miss counter
+     * @return Fraction of hits between 0 and 1, or 0 if there were no lookups
+     */
+    public static double ratio(String hits, String misses) {
+        final long hitCount = get(hits);
+        final long total = hitCount + get(misses);
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return Copy of every counter, sorted by name
+     */
+    public static Map<String, Long> snapshot() {
+        final Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : sCounters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Clear every counter
+     */
+    public static void reset() {
+        sCounters.clear();
+    }
+
+    private static AtomicLong counter(String name) {
+        AtomicLong counter = sCounters.get(name);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+
+    // Disallow instantiation
+    private Metrics() {
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.metrics;
+
+import android.util.Log;
+
+import com.prodbymozart.workmanager.preview.PreviewCache;
+import com.prodbymozart.workmanager.workers.core.LaneScheduler;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the {@link Metrics} to logcat, so hit rates can be read off a device with
+ * {@code adb logcat -s Metrics}.
+ */
+public final class MetricsReport {
+    private static final String TAG = Metrics.class.getSimpleName();
+
+    /**
+     * Log the cache hit rates and the state of each lane, one line each, and every counter at
+     * verbose level
+     */
+    public static void log() {
+        Log.d(TAG, String.format(Locale.US,
+                "Preview memory hit rate %.2f, signature hit rate %.2f",
+                Metrics.ratio(PreviewCache.METRIC_MEMORY_HIT, PreviewCache.METRIC_MEMORY_MISS),
+                Metrics.ratio(PreviewCache.METRIC_SIGNATURE_HIT,
+                        PreviewCache.METRIC_SIGNATURE_MISS)));
+
+        for (LaneScheduler.Lane lane : LaneScheduler.Lane.values()) {
+            final long waits = Metrics.get(lane.metric("wait.count"));
+            Log.d(TAG, String.format(Locale.US,
+                    "Lane %s queue depth %d, %d waits averaging %d ms (max %d ms), %d preemptions",
+                    lane, Metrics.get(lane.metric("queue_depth")), waits,
+                    waits == 0 ? 0 : Metrics.get(lane.metric("wait.total_ms")) / waits,
+                    Metrics.get(lane.metric("wait.max_ms")),
+                    Metrics.get(lane.metric("preemptions"))));
+        }
+
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+                Log.v(TAG, entry.getKey() + " = " + entry.getValue());
+            }
+        }
+    }
+
+    // Disallow instantiation
+    private MetricsReport() {
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.metrics;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Times the startup of an Activity from {@code onCreate}.
+ *
+ * Time to first frame is recorded once the first frame has been drawn, in the
+ * {@code startup.<activity>.first_frame} timer. Time to interactive is recorded when the
+ * Activity calls {@link #markInteractive()}, in the {@code startup.<activity>.interactive} timer.
+ * What counts as interactive is up to the Activity, e.g. once its work status is wired up.
+ */
+public final class StartupTrace {
+
+    private final String mName;
+    private final long mStartMillis;
+    private boolean mFirstFrameDrawn;
+    private boolean mInteractive;
+
+    private StartupTrace(String name) {
+        mName = name;
+        mStartMillis = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Start tracing. Call this first thing in {@code onCreate}.
+     *
+     * @param activity ~ Activity being started
+     * @param afterFirstFrame ~ Run once the first frame has been drawn, for work that should not
+     * hold it back
+     * @return The trace
+     */
+    @MainThread
+    public static StartupTrace begin(@NonNull Activity activity,
+            @NonNull Runnable afterFirstFrame) {
+        final StartupTrace trace = new StartupTrace(activity.getClass().getSimpleName());
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                        // Pre-draw runs right before the frame, posting lands right after it
+                        decorView.post(() -> {
+                            trace.markFirstFrame();
+                            afterFirstFrame.run();
+                        });
+                        return true;
+                    }
+                });
+        return trace;
+    }
+
+    /**
+     * Record the time to interactive. Only the first call is recorded.
+     */
+    @MainThread
+    public void markInteractive() {
+        if (mInteractive) return;
+        mInteractive = true;
+        Metrics.recordTime("startup." + mName + ".interactive", elapsed());
+    }
+
+    @MainThread
+    private void markFirstFrame() {
+        if (mFirstFrameDrawn) return;
+        mFirstFrameDrawn = true;
+        Metrics.recordTime("startup." + mName + ".first_frame", elapsed());
+    }
+
+    private long elapsed() {
+        return SystemClock.uptimeMillis() - mStartMillis;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.preview;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.signature.StringSignature;
+import com.prodbymozart.workmanager.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads image previews through Glide with a fixed size and a content based signature.
+ *
+ * Every preview is requested at the same size, so a thumbnail warmed up in one Activity is a
+ * memory cache hit in the next. The signature is a hash of the image content, so an output that
+ * is rewritten under the same Uri never shows a stale preview.
+ */
+public final class PreviewCache {
+    private static final String TAG = PreviewCache.class.getSimpleName();
+
+    public static final String METRIC_MEMORY_HIT = "preview.memory_hit";
+    public static final String METRIC_MEMORY_MISS = "preview.memory_miss";
+    public static final String METRIC_SIGNATURE_HIT = SignatureCache.METRIC_HIT;
+    public static final String METRIC_SIGNATURE_MISS = SignatureCache.METRIC_MISS;
+
+    /**
+     * Number of content signatures remembered
+     */
+    private static final int MAX_SIGNATURES = 64;
+
+    /**
+     * Thumbnails shown while a preview isn't ready yet are this many times smaller
+     */
+    private static final int THUMBNAIL_DIVISOR = 8;
+
+    /**
+     * Hashing is I/O bound, so a single thread keeps it from competing with decoding
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final SignatureCache sSignatures = new SignatureCache(MAX_SIGNATURES);
+
+    /**
+     * Latest load requested for each view, only touched on the main thread. A load that finishes
+     * hashing after a newer one was requested for the same view is dropped.
+     */
+    private static final Map<ImageView, Object> sLatestLoads = new WeakHashMap<>();
+
+    /**
+     * Counts memory cache hits and misses for every preview load
+     */
+    private static final RequestListener<Uri, GlideDrawable> sHitListener =
+            new RequestListener<Uri, GlideDrawable>() {
+                @Override
+                public boolean onException(Exception e, Uri model, Target<GlideDrawable> target,
+                        boolean isFirstResource) {
+                    Log.e(TAG, "Unable to load preview " + model, e);
+                    return false;
+                }
+
+                @Override
+                public boolean onResourceReady(GlideDrawable resource, Uri model,
+                        Target<GlideDrawable> target, boolean isFromMemoryCache,
+                        boolean isFirstResource) {
+                    Metrics.increment(isFromMemoryCache ? METRIC_MEMORY_HIT : METRIC_MEMORY_MISS);
+                    return false;
+                }
+            };
+
+    /**
+     * Size previews are decoded at, in both dimensions. The widest a preview is ever shown is
+     * the width of the screen.
+     *
+     * @param context ~ Any context
+     * @return Preview size in pixels
+     */
+    public static int previewSize(@NonNull Context context) {
+        return context.getResources().getDisplayMetrics().widthPixels;
+    }
+
+    /**
+     * Show the preview of an image.
+     *
+     * If the signature of the image is already known, e.g. because it was pre-warmed, the
+     * preview is requested right away and is usually a memory cache hit in time for the first
+     * frame. Otherwise a small thumbnail is shown right away while the content is hashed.
+     *
+     * @param activity ~ Activity that owns the view
+     * @param uri ~ Image to show
+     * @param view ~ View to show the image in
+     */
+    public static void load(@NonNull Activity activity, @NonNull Uri uri,
+            @NonNull ImageView view) {
+        final Context context = activity.getApplicationContext();
+        final RequestManager manager = Glide.with(activity);
+        final Object token = new Object();
+        sLatestLoads.put(view, token);
+
+        final String cached = cachedSignature(uri);
+        if (cached != null) {
+            request(manager, context, uri, cached).listener(sHitListener).into(view);
+            return;
+        }
+
+        final int thumbnailSize = previewSize(context) / THUMBNAIL_DIVISOR;
+        manager.load(uri)
+                .override(thumbnailSize, thumbnailSize)
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
+                .into(view);
+
+        sExecutor.execute(() -> {
+            final String signature = signatureOrUri(context, uri);
+            sMainHandler.post(() -> {
+                // The Activity might have gone away while the content was hashed
+                if (activity.isFinishing() || activity.isDestroyed()) return;
+
+                // A newer load for the same view may have been requested meanwhile
+                if (sLatestLoads.get(view) != token) return;
+                request(manager, context, uri, signature)
+                        .listener(sHitListener)
+                        .into(view);
+            });
+        });
+    }
+
+    /**
+     * Decode the preview of an image into the caches ahead of time
+     *
+     * @param context ~ Any context
+     * @param uri ~ Image to warm up
+     */
+    public static void prewarm(@NonNull Context context, @NonNull Uri uri) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            final String signature = signatureOrUri(appContext, uri);
+            final int size = previewSize(appContext);
+            sMainHandler.post(() ->
+                    request(Glide.with(appContext), appContext, uri, signature)
+                            .preload(size, size));
+        });
+    }
+
+    /**
+     * Shrink the remembered signatures when memory is short. Glide's own caches are trimmed
+     * through Glide.
+     *
+     * @param keep ~ Fraction of the signatures to keep, 0 to drop all of them
+     */
+    public static void trimMemory(float keep) {
+        sSignatures.trimToSize((int) (MAX_SIGNATURES * keep));
+    }
+
+    /**
+     * Signature of an image that can be looked up without any I/O. Files are left out, because
+     * their signature depends on their size and modification time.
+     *
+     * @return The remembered signature, or null if it has to be computed
+     */
+    private static String cachedSignature(Uri uri) {
+        if ("file".equals(uri.getScheme())) return null;
+        return sSignatures.lookup(uri.toString());
+    }
+
+    /**
+     * Content signature of an image. Signatures are remembered per Uri, together with the size
+     * and modification time for files so a rewritten file is hashed again.
+     *
+     * @param context ~ Any context
+     * @param uri ~ Image to hash
+     * @return Hex encoded hash of the image content
+     * @throws IOException If the image can't be read
+     */
+    @WorkerThread
+    public static String signature(@NonNull Context context, @NonNull Uri uri)
+            throws IOException {
+        String key = uri.toString();
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            final File file = new File(uri.getPath());
+            key += ":" + file.length() + ":" + file.lastModified();
+        }
+
+        return sSignatures.signature(key,
+                () -> context.getContentResolver().openInputStream(uri));
+    }
+
+    @WorkerThread
+    private static String signatureOrUri(Context context, Uri uri) {
+        try {
+            return signature(context, uri);
+        } catch (IOException | RuntimeException e) {
+            // Still show the image, but without a content signature
+            Log.e(TAG, "Unable to hash " + uri, e);
+            return uri.toString();
+        }
+    }
+
+    /**
+     * The request shared by loads and pre-warms. Both have to build exactly the same request so
+     * they end up with the same cache key.
+     */
+    private static DrawableRequestBuilder<Uri> request(RequestManager manager, Context context,
+            Uri uri, String signature) {
+        final int size = previewSize(context);
+        return manager.load(uri)
+                .signature(new StringSignature(signature))
+                .override(size, size)
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.RESULT);
+    }
+
+    // Disallow instantiation
+    private PreviewCache() {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.preview;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.GlideModule;
+
+/**
+ * Sizes the Glide caches for the previews shown by the app instead of Glide's generic defaults.
+ *
+ * Registered through the meta-data entry in the manifest.
+ */
+public class PreviewGlideModule implements GlideModule {
+
+    /**
+     * Number of previews the memory cache can hold, enough for the source, the output and a
+     * rotation of each
+     */
+    private static final int MEMORY_CACHE_PREVIEWS = 4;
+
+    private static final String DISK_CACHE_NAME = "preview_cache";
+    private static final int DISK_CACHE_SIZE = 64 * 1024 * 1024;
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        // A preview is decoded at PreviewCache#previewSize in both dimensions as ARGB_8888
+        final int previewSize = PreviewCache.previewSize(context);
+        final int previewBytes = previewSize * previewSize * 4;
+        final int defaultSize = new MemorySizeCalculator(context).getMemoryCacheSize();
+
+        builder.setMemoryCache(new LruResourceCache(
+                Math.min(previewBytes * MEMORY_CACHE_PREVIEWS, defaultSize)));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(
+                context, DISK_CACHE_NAME, DISK_CACHE_SIZE));
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        // Nothing to register, the default Uri loaders are used.
+    }
+}
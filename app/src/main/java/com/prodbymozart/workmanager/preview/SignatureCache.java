@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.preview;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.core.ContentHash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Content signatures of images, remembered by key so an image is only hashed once. The least
+ * recently used signatures are dropped first.
+ *
+ * Every lookup counts as exactly one {@link #METRIC_HIT} or {@link #METRIC_MISS}, and this is
+ * the only place that counts them.
+ */
+final class SignatureCache {
+
+    static final String METRIC_HIT = "preview.signature_hit";
+    static final String METRIC_MISS = "preview.signature_miss";
+
+    /**
+     * Opens the content of an image for hashing
+     */
+    interface Content {
+        InputStream open() throws IOException;
+    }
+
+    private final int mMaxSize;
+
+    /**
+     * Signatures by key, in access order so the least recently used comes first
+     */
+    private final LinkedHashMap<String, String> mSignatures =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize ~ Number of signatures remembered
+     */
+    SignatureCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Look up a signature without any I/O. Only a hit is counted, a miss is counted once the
+     * signature is computed, see {@link #signature(String, Content)}.
+     *
+     * @param key ~ Key of the image
+     * @return The remembered signature, or null if it has to be computed
+     */
+    synchronized String lookup(String key) {
+        final String signature = mSignatures.get(key);
+        if (signature != null) Metrics.increment(METRIC_HIT);
+        return signature;
+    }
+
+    /**
+     * Signature of an image, hashing its content if it isn't remembered yet
+     *
+     * @param key ~ Key of the image
+     * @param content ~ Content of the image, only opened on a miss
+     * @return Hex encoded hash of the image content
+     * @throws IOException If the content can't be read
+     */
+    String signature(String key, Content content) throws IOException {
+        String signature = lookup(key);
+        if (signature != null) return signature;
+
+        // Hash outside the lock, it is I/O bound
+        Metrics.increment(METRIC_MISS);
+        signature = ContentHash.of(content.open());
+        synchronized (this) {
+            mSignatures.put(key, signature);
+            trimToSize(mMaxSize);
+        }
+        return signature;
+    }
+
+    /**
+     * Drop the least recently used signatures until at most this many are left
+     *
+     * @param size ~ Number of signatures to keep
+     */
+    synchronized void trimToSize(int size) {
+        final Iterator<String> keys = mSignatures.keySet().iterator();
+        while (mSignatures.size() > size && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * @return Number of remembered signatures
+     */
+    synchronized int size() {
+        return mSignatures.size();
+    }
+}
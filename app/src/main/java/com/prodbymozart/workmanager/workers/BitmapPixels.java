@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.prodbymozart.workmanager.workers.core.PixelBuffer;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link Pixels} that stay in a decoded {@link Bitmap} until something asks for the ARGB array.
+ *
+ * RenderScript blurs bitmaps and the sinks write bitmaps, so on the default path the image never
+ * has to be copied into an array and back. Large images blurred on the CPU are copied between the
+ * bitmap and a {@link PixelBuffer}, which keeps them off the Java heap as well. The bitmap is
+ * recycled while the buffer holds the pixels and a new one is created from the blurred buffer.
+ */
+final class BitmapPixels extends Pixels {
+
+    private Bitmap mBitmap;
+    private int[] mArgb;
+
+    /**
+     * True while the pixels are only in a {@link PixelBuffer}, between
+     * {@link #copyToBuffer(File)} and {@link #copyFromBuffer(PixelBuffer)}
+     */
+    private boolean mInBuffer;
+
+    /**
+     * Constructor.
+     *
+     * @param bitmap ~ Decoded image, owned by this object from now on
+     * @param sampleSize ~ How many times smaller than the source the image was decoded
+     */
+    BitmapPixels(@NonNull Bitmap bitmap, int sampleSize) {
+        super(bitmap.getWidth(), bitmap.getHeight(), sampleSize);
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Unpacks the bitmap the first time it is called. From then on the array holds the pixels
+     * and the bitmap is gone.
+     */
+    @Override
+    public synchronized int[] getArgb() {
+        checkNotInBuffer();
+        if (mArgb == null) {
+            mArgb = WorkerUtils.getPixels(mBitmap);
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        return mArgb;
+    }
+
+    /**
+     * Copies the bitmap as it is, without unpacking it on the heap, and then recycles it. Before
+     * Android O bitmaps live on the Java heap, so keeping it for the whole blur would hold the
+     * image on the heap after all.
+     */
+    @Override
+    public synchronized PixelBuffer copyToBuffer(File spillDirectory) throws IOException {
+        checkNotInBuffer();
+        if (!canCopyBitmap()) return super.copyToBuffer(spillDirectory);
+
+        final PixelBuffer buffer = WorkerUtils.copyToPixelBuffer(mBitmap, spillDirectory);
+        mBitmap.recycle();
+        mBitmap = null;
+        mInBuffer = true;
+        return buffer;
+    }
+
+    /**
+     * Copies into a new bitmap if the pixels were moved into the buffer, otherwise into the array
+     */
+    @Override
+    public synchronized void copyFromBuffer(PixelBuffer buffer) {
+        if (!mInBuffer) {
+            super.copyFromBuffer(buffer);
+            return;
+        }
+        final Bitmap bitmap =
+                Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+        WorkerUtils.copyFromPixelBuffer(buffer, bitmap);
+        mBitmap = bitmap;
+        mInBuffer = false;
+    }
+
+    private void checkNotInBuffer() {
+        if (mInBuffer) throw new IllegalStateException("Pixels are in a buffer");
+    }
+
+    /**
+     * Only ARGB_8888 bitmaps have the four bytes per pixel of a {@link PixelBuffer}
+     */
+    private boolean canCopyBitmap() {
+        return mBitmap != null && mBitmap.getConfig() == Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * @return The bitmap holding the pixels, or null once they were unpacked
+     */
+    synchronized Bitmap getBitmap() {
+        checkNotInBuffer();
+        return mBitmap;
+    }
+
+    /**
+     * Replace the pixels with a processed bitmap of the same size
+     *
+     * @param bitmap ~ New pixels, owned by this object from now on
+     */
+    synchronized void setBitmap(@NonNull Bitmap bitmap) {
+        checkNotInBuffer();
+        if (mBitmap == null) throw new IllegalStateException("Pixels were already unpacked");
+        if (bitmap != mBitmap) mBitmap.recycle();
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Bitmap with the pixels of an image, without a copy if they are still in one
+     *
+     * @param pixels ~ Image to convert
+     * @return Bitmap with the pixels
+     */
+    static Bitmap toBitmap(@NonNull Pixels pixels) {
+        if (pixels instanceof BitmapPixels) {
+            final Bitmap bitmap = ((BitmapPixels) pixels).getBitmap();
+            if (bitmap != null) return bitmap;
+        }
+        return WorkerUtils.createBitmap(pixels.getArgb(), pixels.getWidth(), pixels.getHeight());
+    }
+}
@@ -16,34 +16,61 @@
 
 package com.prodbymozart.workmanager.workers;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.work.Data;
 import androidx.work.Worker;
+import com.prodbymozart.workmanager.memory.MemoryGovernor;
+import com.prodbymozart.workmanager.workers.core.BlurEngine;
+import com.prodbymozart.workmanager.workers.core.BlurPipeline;
+import com.prodbymozart.workmanager.workers.core.CpuBlurEngine;
+import com.prodbymozart.workmanager.workers.core.JobProgress;
+import com.prodbymozart.workmanager.workers.core.LaneScheduler;
+import com.prodbymozart.workmanager.workers.core.Prefetcher;
+import com.prodbymozart.workmanager.workers.core.ProgressReporter;
 
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.prodbymozart.workmanager.Constants.BLUR_ENGINE_RENDERSCRIPT;
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_ENGINE;
 import static com.prodbymozart.workmanager.Constants.KEY_BLUR_ITERATION;
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_LEVEL;
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_MASK;
 import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URI;
+import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URIS;
+import static com.prodbymozart.workmanager.Constants.KEY_JOB_ID;
+import static com.prodbymozart.workmanager.Constants.KEY_LANE;
 import static com.prodbymozart.workmanager.Constants.KEY_SHOW_NOTIFICATION;
+import static com.prodbymozart.workmanager.Constants.PREFETCH_BYTE_BUDGET;
+import static com.prodbymozart.workmanager.Constants.PREFETCH_DEPTH;
 
 public class BlurWorker extends Worker {
 
     private static final String TAG = BlurWorker.class.getSimpleName();
 
+    private static final ProgressReporter LOG_REPORTER =
+            (stage, step, steps) -> Log.d(TAG, String.format("%s %d/%d", stage, step, steps));
+
     @NonNull
     @Override
     public WorkerResult doWork() {
         final Context context = getApplicationContext();
         final String resourceUri = getInputData().getString(KEY_IMAGE_URI, null);
+        final String[] resourceUris = getInputData().getStringArray(KEY_IMAGE_URIS);
         final boolean showNotification = getInputData().getBoolean(KEY_SHOW_NOTIFICATION, false);
         final int blurIteration = getInputData().getInt(KEY_BLUR_ITERATION, 0);
-        final ContentResolver resolver = context.getContentResolver();
+        final int blurEngine = getInputData().getInt(KEY_BLUR_ENGINE, BLUR_ENGINE_RENDERSCRIPT);
+        final LaneScheduler.Lane lane =
+                LaneScheduler.Lane.fromName(getInputData().getString(KEY_LANE, null));
+        final int blurLevel = getInputData().getInt(KEY_BLUR_LEVEL, 1);
+        final int[] blurMask = getInputData().getIntArray(KEY_BLUR_MASK);
+        WorkerUtils.publishProgress(getInputData(), JobProgress.State.RUNNING, blurIteration,
+                blurLevel, null);
 
         // Intentionally slowing down work to simulate long process
         if (showNotification) {
@@ -51,37 +78,120 @@ public class BlurWorker extends Worker {
         }
 
         try {
+            if (resourceUris != null && resourceUris.length > 0) {
+                final String[] outputUris =
+                        blurAll(context, resourceUris, blurEngine, blurMask, lane);
+                setOutputData(createOutputData()
+                        .putString(KEY_IMAGE_URI, outputUris[0])
+                        .putStringArray(KEY_IMAGE_URIS, outputUris).build());
+                WorkerUtils.publishProgress(getInputData(), JobProgress.State.RUNNING,
+                        blurIteration + 1, blurLevel, null);
+
+                Log.d(TAG, "Worker was successful!");
+                return WorkerResult.SUCCESS;
+            }
+
             if (TextUtils.isEmpty(resourceUri)) {
                 Log.e(TAG, "Invalid input uri");
                 throw new IllegalArgumentException("Invalid input uri");
             }
 
-            // Create a bitmap
-            Bitmap picture = BitmapFactory.decodeStream(
-                    resolver.openInputStream(Uri.parse(resourceUri)));
-
-            // Blur the bitmap
-            Bitmap output = WorkerUtils.blurBitmap(picture, context);
-
-            // Write bitmap to a temp file
-            Uri outputUri = WorkerUtils.writeBitmapToFile(context, output, blurIteration);
+            // The blur itself has no Android dependencies, the worker only plugs in the
+            // Android source, sink and engine
+            final BlurEngine engine = WorkerUtils.createBlurEngine(context, blurEngine, blurMask);
+            final BlurPipeline pipeline = new BlurPipeline(
+                    new ContentResolverPixelSource(context, keepsBitmaps(engine)),
+                    new FilePixelSink(context),
+                    engine,
+                    LOG_REPORTER,
+                    BlurPipeline.DEFAULT_BUFFER_THRESHOLD,
+                    context.getCacheDir());
+            final String outputUri =
+                    LaneScheduler.getDefault().run(lane, () -> pipeline.run(resourceUri));
 
             // Set output data for the next blur agent to use. This allows us to make sure that same
             // uri is passed between the blur agents.
-            setOutputData(new Data.Builder()
-                    .putString(KEY_IMAGE_URI, outputUri.toString())
-                    .putBoolean(KEY_SHOW_NOTIFICATION, false)
-                    .putInt(KEY_BLUR_ITERATION, blurIteration + 1).build());
+            setOutputData(createOutputData().putString(KEY_IMAGE_URI, outputUri).build());
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.RUNNING,
+                    blurIteration + 1, blurLevel, null);
 
             // Worker was Successful
             Log.d(TAG, "Worker was successful!");
             return WorkerResult.SUCCESS;
+        } catch (RejectedExecutionException exception) {
+            // The lane is full, try again later instead of failing the chain
+            Log.w(TAG, "Lane " + lane + " is full, retrying");
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.ENQUEUED,
+                    blurIteration, blurLevel, null);
+            return WorkerResult.RETRY;
         } catch (Throwable throwable) {
 
             // WorkManager will return WorkerResult.FAILURE by default, but it but it's best to be
             // explicit about it. Thus if there were errors, we're return FAILURE.
             Log.e(TAG, "Error applying blur", throwable);
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.FAILED, blurIteration,
+                    blurLevel, null);
             return WorkerResult.FAILURE;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Output data with everything the next blur agent needs besides the image uris. The input
+     * values are passed on, only the iteration moves forward.
+     */
+    private Data.Builder createOutputData() {
+        final Data input = getInputData();
+        final Data.Builder builder = new Data.Builder()
+                .putBoolean(KEY_SHOW_NOTIFICATION, false)
+                .putInt(KEY_BLUR_ENGINE, input.getInt(KEY_BLUR_ENGINE, BLUR_ENGINE_RENDERSCRIPT))
+                .putString(KEY_LANE, input.getString(KEY_LANE, null))
+                .putString(KEY_JOB_ID, input.getString(KEY_JOB_ID, null))
+                .putInt(KEY_BLUR_LEVEL, input.getInt(KEY_BLUR_LEVEL, 1))
+                .putInt(KEY_BLUR_ITERATION, input.getInt(KEY_BLUR_ITERATION, 0) + 1);
+
+        final int[] blurMask = input.getIntArray(KEY_BLUR_MASK);
+        if (blurMask != null) builder.putIntArray(KEY_BLUR_MASK, blurMask);
+        return builder;
+    }
+
+    /**
+     * Blurs every image of a multi-image job. The next images are read ahead while the current
+     * one is blurred, so reading and blurring overlap instead of taking turns.
+     *
+     * @return Output uris, in the same order as the inputs
+     */
+    private static String[] blurAll(Context context, String[] resourceUris, int blurEngine,
+            int[] blurMask, LaneScheduler.Lane lane) throws Exception {
+        // Read ahead less, or just one image, while memory is short
+        final BlurEngine engine = WorkerUtils.createBlurEngine(context, blurEngine, blurMask);
+        try (Prefetcher prefetcher = new Prefetcher(
+                new ContentResolverPixelSource(context, keepsBitmaps(engine)),
+                PREFETCH_DEPTH, MemoryGovernor.scaleBudget(PREFETCH_BYTE_BUDGET))) {
+            prefetcher.enqueue(Arrays.asList(resourceUris));
+
+            final BlurPipeline pipeline = new BlurPipeline(prefetcher, new FilePixelSink(context),
+                    engine, LOG_REPORTER, BlurPipeline.DEFAULT_BUFFER_THRESHOLD,
+                    context.getCacheDir());
+            final String[] outputUris = new String[resourceUris.length];
+            for (int i = 0; i < resourceUris.length; i++) {
+                final String resourceUri = resourceUris[i];
+                outputUris[i] =
+                        LaneScheduler.getDefault().run(lane, () -> pipeline.run(resourceUri));
+            }
+
+            Log.d(TAG, String.format("Waited %d ms on reads, computed for %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(prefetcher.getIoWaitNanos()),
+                    TimeUnit.NANOSECONDS.toMillis(prefetcher.getComputeNanos())));
+            return outputUris;
+        }
+    }
+
+    /**
+     * RenderScript blurs the decoded bitmap as it is and the CPU engine copies large bitmaps into
+     * a {@link com.prodbymozart.workmanager.workers.core.PixelBuffer}. The masked blur needs the
+     * pixels unpacked.
+     */
+    private static boolean keepsBitmaps(BlurEngine engine) {
+        return engine instanceof RenderScriptBlurEngine || engine instanceof CpuBlurEngine;
+    }
+}
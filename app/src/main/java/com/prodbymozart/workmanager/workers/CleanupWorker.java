@@ -18,13 +18,11 @@ package com.prodbymozart.workmanager.workers;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
-import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.work.Worker;
 import com.prodbymozart.workmanager.Constants;
-
-import java.io.File;
+import com.prodbymozart.workmanager.workers.core.CleanupPipeline;
 
 public class CleanupWorker extends Worker {
     private static final String TAG = CleanupWorker.class.getSimpleName();
@@ -39,22 +37,9 @@ public class CleanupWorker extends Worker {
         WorkerUtils.sleep();
 
         try {
-            File outputDirectory = new File(context.getFilesDir(), Constants.OUTPUT_PATH);
-            if (!outputDirectory.exists()) return WorkerResult.SUCCESS;
-
-            // Retrieve the list of files
-            final File[] entries = outputDirectory.listFiles();
-            if (entries == null || entries.length == 0) return WorkerResult.SUCCESS;
-
-            for (File entry : entries) {
-                // Verify the file ends with .jpg
-                final String name = entry.getName();
-                if (TextUtils.isEmpty(name) || !name.endsWith(".jpg")) continue;
-
-                // Delete file.
-                boolean deleted = entry.delete();
-                Log.i(TAG, String.format("Deleted %s - %s", name, deleted));
-            }
+            final int dropped = new CleanupPipeline(new FilePixelSink(context))
+                    .run(Constants.OUTPUT_MAX_BYTES);
+            Log.i(TAG, String.format("Dropped %d outputs", dropped));
 
             Log.d(TAG, "Worker was successful!");
             return WorkerResult.SUCCESS;
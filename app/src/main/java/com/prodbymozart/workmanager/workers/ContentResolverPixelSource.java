@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.core.PixelSource;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.io.IOException;
+
+/**
+ * {@link PixelSource} that reads through the {@link android.content.ContentResolver} and decodes
+ * with {@link BitmapFactory}.
+ *
+ * When a full size decode runs out of memory the image is decoded at half the size, then a
+ * quarter and so on up to {@link #MAX_SAMPLE_SIZE}, counting each step in
+ * {@link #METRIC_DEGRADE_SAMPLE}. Sources for outputs that must keep the full size can turn this
+ * off, running out of memory is then an error.
+ *
+ * Images can be handed on as the decoded bitmap, for engines and sinks that work on bitmaps, or
+ * unpacked into an ARGB array right away, so running out of memory while unpacking also leads to
+ * a smaller decode.
+ */
+final class ContentResolverPixelSource implements PixelSource {
+
+    static final String METRIC_DEGRADE_SAMPLE = "memory.degrade.decode_sampled";
+
+    /**
+     * Smallest decode that is still worth blurring, as a fraction of each dimension
+     */
+    private static final int MAX_SAMPLE_SIZE = 8;
+
+    private final Context mContext;
+    private final boolean mKeepBitmaps;
+    private final int mMaxSampleSize;
+
+    /**
+     * Constructor for a source that decodes smaller when memory runs out
+     *
+     * @param context ~ Any context, the application context is kept
+     * @param keepBitmaps ~ True to hand on decoded bitmaps, false to unpack them right away
+     */
+    ContentResolverPixelSource(@NonNull Context context, boolean keepBitmaps) {
+        this(context, keepBitmaps, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param context ~ Any context, the application context is kept
+     * @param keepBitmaps ~ True to hand on decoded bitmaps, false to unpack them right away
+     * @param allowSampling ~ True to decode smaller when memory runs out, false to fail instead
+     */
+    ContentResolverPixelSource(@NonNull Context context, boolean keepBitmaps,
+            boolean allowSampling) {
+        mContext = context.getApplicationContext();
+        mKeepBitmaps = keepBitmaps;
+        mMaxSampleSize = allowSampling ? MAX_SAMPLE_SIZE : 1;
+    }
+
+    @Override
+    public byte[] read(String uri) throws IOException {
+        return WorkerUtils.readBytes(mContext.getContentResolver(), Uri.parse(uri));
+    }
+
+    @Override
+    public Pixels decode(byte[] content) throws IOException {
+        for (int sampleSize = 1; ; sampleSize *= 2) {
+            try {
+                return decode(content, sampleSize);
+            } catch (OutOfMemoryError e) {
+                if (sampleSize >= mMaxSampleSize) throw e;
+                Metrics.increment(METRIC_DEGRADE_SAMPLE);
+            }
+        }
+    }
+
+    private Pixels decode(byte[] content, int sampleSize) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+
+        // Kept bitmaps may be written back into, see BitmapPixels#copyFromBuffer
+        options.inMutable = mKeepBitmaps;
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(content, 0, content.length, options);
+        if (bitmap == null) throw new IOException("Unable to decode image");
+
+        if (mKeepBitmaps) return new BitmapPixels(bitmap, sampleSize);
+        try {
+            return new Pixels(WorkerUtils.getPixels(bitmap), bitmap.getWidth(),
+                    bitmap.getHeight(), sampleSize);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.prodbymozart.workmanager.workers.core.PixelSink;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PixelSink} that writes JPEG outputs into the output directory and keeps them in the
+ * {@link OutputIndex}.
+ */
+final class FilePixelSink implements PixelSink {
+    private static final String TAG = FilePixelSink.class.getSimpleName();
+
+    /**
+     * Files that aren't in the index are only deleted once they are this old, so a file another
+     * chain is still writing or about to record is left alone
+     */
+    private static final long STALE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Context mContext;
+
+    FilePixelSink(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean usesKeys() {
+        return true;
+    }
+
+    @Override
+    public String find(String key) {
+        final Uri uri = WorkerUtils.findOutput(mContext, key);
+        return uri == null ? null : uri.toString();
+    }
+
+    @Override
+    public String write(String key, Pixels pixels) throws IOException {
+        return WorkerUtils.writeBitmapToFile(mContext, BitmapPixels.toBitmap(pixels), key)
+                .toString();
+    }
+
+    @Override
+    public int trim(long maxBytes) {
+        final List<String> deleted = WorkerUtils.getOutputIndex(mContext)
+                .trim(maxBytes, System.currentTimeMillis() - STALE_MILLIS);
+        for (String name : deleted) {
+            Log.i(TAG, String.format("Deleted %s", name));
+        }
+        return deleted.size();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.work.Data;
+import androidx.work.Worker;
+import com.prodbymozart.workmanager.workers.core.ContentHash;
+import com.prodbymozart.workmanager.workers.core.JobProgress;
+import com.prodbymozart.workmanager.workers.core.LaneScheduler;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+import com.prodbymozart.workmanager.workers.filters.FilterGraph;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.prodbymozart.workmanager.Constants.KEY_FILTER_CHAIN;
+import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URI;
+import static com.prodbymozart.workmanager.Constants.KEY_JOB_ID;
+import static com.prodbymozart.workmanager.Constants.KEY_LANE;
+import static com.prodbymozart.workmanager.Constants.KEY_SHOW_NOTIFICATION;
+
+/**
+ * Runs a whole {@link FilterGraph} over an image inside a single worker, so a chain such as
+ * blur + grayscale + vignette decodes and encodes the image only once.
+ */
+public class FilterWorker extends Worker {
+
+    private static final String TAG = FilterWorker.class.getSimpleName();
+
+    @NonNull
+    @Override
+    public WorkerResult doWork() {
+        final Context context = getApplicationContext();
+        final String resourceUri = getInputData().getString(KEY_IMAGE_URI, null);
+        final String filterChain = getInputData().getString(KEY_FILTER_CHAIN, null);
+        final boolean showNotification = getInputData().getBoolean(KEY_SHOW_NOTIFICATION, false);
+        final ContentResolver resolver = context.getContentResolver();
+        final LaneScheduler.Lane lane =
+                LaneScheduler.Lane.fromName(getInputData().getString(KEY_LANE, null));
+
+        if (showNotification) {
+            WorkerUtils.makeStatusNotification("Filtering Image: " + filterChain, context);
+        }
+
+        // The whole chain is a single step
+        WorkerUtils.publishProgress(getInputData(), JobProgress.State.RUNNING, 0, 1, null);
+
+        try {
+            if (TextUtils.isEmpty(resourceUri)) {
+                Log.e(TAG, "Invalid input uri");
+                throw new IllegalArgumentException("Invalid input uri");
+            }
+
+            // Parse the chain before decoding so a bad chain fails fast
+            final FilterGraph graph = FilterGraph.parse(filterChain);
+            if (graph.isEmpty()) {
+                Log.e(TAG, "Empty filter chain");
+                throw new IllegalArgumentException("Empty filter chain");
+            }
+
+            // Read the input once, it is both hashed for the output key and decoded. The key
+            // holds the parsed chain, so different spellings of a chain share their outputs.
+            final byte[] input = WorkerUtils.readBytes(resolver, Uri.parse(resourceUri));
+            final String spec = graph.toString();
+            final String key = ContentHash.outputKey(input, "filter", spec);
+
+            Uri outputUri = WorkerUtils.findOutput(context, key);
+            if (outputUri == null) {
+                // Decode, smaller if memory is short, and run every filter over the pixels in the
+                // requested lane, giving way to interactive work between tiles
+                final Pixels decoded = new ContentResolverPixelSource(context, false).decode(input);
+                final int width = decoded.getWidth();
+                final int height = decoded.getHeight();
+                final int[] pixels = decoded.getArgb();
+                LaneScheduler.getDefault().run(lane, () -> {
+                    graph.run(pixels, width, height, LaneScheduler::checkpoint);
+                    return null;
+                });
+
+                // Write bitmap to the output file for the key. A smaller decode gets its own key
+                // so a later full size run doesn't reuse it.
+                final String writeKey = decoded.getSampleSize() == 1 ? key
+                        : ContentHash.outputKey(input, "filter", spec,
+                                "sample:" + decoded.getSampleSize());
+                outputUri = WorkerUtils.writeBitmapToFile(context,
+                        WorkerUtils.createBitmap(pixels, width, height), writeKey);
+            } else {
+                Log.d(TAG, "Reusing output " + outputUri);
+            }
+
+            // Output the uri so a SaveWorker can follow this worker
+            setOutputData(new Data.Builder()
+                    .putString(KEY_IMAGE_URI, outputUri.toString())
+                    .putString(KEY_JOB_ID, getInputData().getString(KEY_JOB_ID, null))
+                    .build());
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.RUNNING, 1, 1, null);
+
+            Log.d(TAG, "Worker was successful!");
+            return WorkerResult.SUCCESS;
+        } catch (RejectedExecutionException exception) {
+            // The lane is full, try again later instead of failing the chain
+            Log.w(TAG, "Lane " + lane + " is full, retrying");
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.ENQUEUED, 0, 1, null);
+            return WorkerResult.RETRY;
+        } catch (Throwable throwable) {
+            Log.e(TAG, "Error applying filters", throwable);
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.FAILED, 0, 1, null);
+            return WorkerResult.FAILURE;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import com.prodbymozart.workmanager.workers.core.PixelSink;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * {@link PixelSink} that saves images into the gallery through the {@link MediaStore}.
+ */
+final class MediaStorePixelSink implements PixelSink {
+    private static final String TITLE = "Blurred Image";
+
+    /**
+     * Suppress since Android Studio will complain that we shouldn't be using a final here
+     */
+    @SuppressLint("ConstantLocale")
+    private static final SimpleDateFormat DATE_FORMATTER =
+            new SimpleDateFormat("yyyy.MM.dd 'at' HH:mm:ss z", Locale.getDefault());
+
+    private final Context mContext;
+
+    MediaStorePixelSink(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean usesKeys() {
+        // Saves are never looked up again
+        return false;
+    }
+
+    @Override
+    public String find(String key) {
+        // Every save is meant to show up in the gallery, so nothing is reused
+        return null;
+    }
+
+    @Override
+    public String write(String key, Pixels pixels) throws IOException {
+        final Bitmap bitmap = BitmapPixels.toBitmap(pixels);
+        final String imageUrl = MediaStore.Images.Media.insertImage(mContext.getContentResolver(),
+                bitmap, TITLE, DATE_FORMATTER.format(new Date()));
+
+        if (TextUtils.isEmpty(imageUrl)) throw new IOException("Writing to MediaStore failed");
+        return imageUrl;
+    }
+
+    @Override
+    public int trim(long maxBytes) {
+        // The gallery belongs to the user
+        return 0;
+    }
+}
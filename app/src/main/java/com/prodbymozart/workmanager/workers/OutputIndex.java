@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the outputs in the output directory, keyed by a hash of the input content and the
+ * parameters that produced them.
+ *
+ * The index is kept in a small text file next to the outputs, one {@code key name size
+ * lastAccess} line per output. It lets work reuse an existing output instead of producing the
+ * same file again, and lets cleanup evict the least recently used outputs instead of all of them.
+ */
+final class OutputIndex {
+
+    static final String INDEX_FILE_NAME = "index";
+    static final String OUTPUT_SUFFIX = ".jpg";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\t";
+
+    private final File mDirectory;
+    private final File mIndexFile;
+
+    /**
+     * Entries in access order, least recently used first
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor. Reads the existing index file if there is one.
+     *
+     * @param directory ~ Output directory
+     */
+    OutputIndex(File directory) {
+        mDirectory = directory;
+        mIndexFile = new File(directory, INDEX_FILE_NAME);
+        read();
+    }
+
+    /**
+     * Find the output for a key and mark it as used
+     *
+     * @param key ~ Output key
+     * @return The output file, or null if there is none
+     */
+    synchronized File lookup(String key) {
+        final Entry entry = mEntries.get(key);
+        if (entry == null) return null;
+
+        final File file = new File(mDirectory, entry.mName);
+        if (!file.exists()) {
+            // Deleted behind our back
+            mEntries.remove(key);
+            write();
+            return null;
+        }
+
+        entry.mLastAccess = System.currentTimeMillis();
+        write();
+        return file;
+    }
+
+    /**
+     * Add or refresh an output
+     *
+     * @param key ~ Output key
+     * @param file ~ Output file inside the output directory
+     */
+    synchronized void record(String key, File file) {
+        mEntries.put(key, new Entry(key, file.getName(), file.length(),
+                System.currentTimeMillis()));
+        write();
+    }
+
+    /**
+     * @param name ~ File name inside the output directory
+     * @return True if the file belongs to an indexed output
+     */
+    synchronized boolean contains(String name) {
+        for (Entry entry : mEntries.values()) {
+            if (entry.mName.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Delete least recently used outputs until the rest fit in the budget
+     *
+     * @param maxBytes ~ Total size the outputs may take up
+     * @return Names of the deleted files
+     */
+    synchronized List<String> evict(long maxBytes) {
+        long total = 0;
+        for (Entry entry : mEntries.values()) {
+            total += entry.mSize;
+        }
+
+        final List<String> evicted = new ArrayList<>();
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (total > maxBytes && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            new File(mDirectory, entry.mName).delete();
+            total -= entry.mSize;
+            evicted.add(entry.mName);
+            iterator.remove();
+        }
+
+        if (!evicted.isEmpty()) write();
+        return evicted;
+    }
+
+    /**
+     * Clean up the output directory: delete leftovers, then evict least recently used outputs
+     * until the rest fit in the budget. Leftovers are outputs that aren't in the index and
+     * temporary files. They are only deleted once they are older than {@code staleBefore}, so a
+     * file another chain is still writing or about to record is left alone.
+     *
+     * @param maxBytes ~ Total size the outputs may take up
+     * @param staleBefore ~ Leftovers modified at or after this time are kept
+     * @return Names of the deleted files
+     */
+    synchronized List<String> trim(long maxBytes, long staleBefore) {
+        final List<String> deleted = new ArrayList<>();
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // Only look at outputs and leftover temporary files
+                final String name = file.getName();
+                if (!name.endsWith(TEMP_SUFFIX) && !name.endsWith(OUTPUT_SUFFIX)) continue;
+
+                // Indexed outputs are kept for reuse and evicted below
+                if (name.endsWith(OUTPUT_SUFFIX) && contains(name)) continue;
+
+                // Files that were touched recently may still be in use
+                if (file.lastModified() >= staleBefore) continue;
+                if (file.delete()) deleted.add(name);
+            }
+        }
+
+        deleted.addAll(evict(maxBytes));
+        return deleted;
+    }
+
+    private void read() {
+        if (!mIndexFile.exists()) return;
+
+        final List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(mIndexFile), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(SEPARATOR);
+                if (fields.length != 4) continue;
+                try {
+                    entries.add(new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3])));
+                } catch (NumberFormatException e) {
+                    // Skip the corrupt line, the output will simply be produced again
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // The file is written in access order, but sort anyway in case clocks went backwards
+        Collections.sort(entries, (a, b) -> Long.compare(a.mLastAccess, b.mLastAccess));
+        for (Entry entry : entries) {
+            mEntries.put(entry.mKey, entry);
+        }
+    }
+
+    private void write() {
+        if (!mDirectory.exists()) mDirectory.mkdirs();
+
+        // Write to a temporary file and rename so a crash never leaves a half written index
+        final File temp = new File(mDirectory, INDEX_FILE_NAME + TEMP_SUFFIX);
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), UTF_8))) {
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                final Entry entry = item.getValue();
+                writer.write(entry.mKey + SEPARATOR + entry.mName + SEPARATOR + entry.mSize
+                        + SEPARATOR + entry.mLastAccess);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        if (!temp.renameTo(mIndexFile)) {
+            temp.delete();
+        }
+    }
+
+    private static final class Entry {
+        final String mKey;
+        final String mName;
+        final long mSize;
+        long mLastAccess;
+
+        Entry(String key, String name, long size, long lastAccess) {
+            mKey = key;
+            mName = name;
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+    }
+}
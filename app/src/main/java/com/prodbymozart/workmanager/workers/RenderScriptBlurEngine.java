@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.core.BlurEngine;
+import com.prodbymozart.workmanager.workers.core.CpuBlurEngine;
+import com.prodbymozart.workmanager.workers.core.LaneScheduler;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.io.IOException;
+
+/**
+ * {@link BlurEngine} backed by {@link WorkerUtils#blurBitmap(Bitmap, Context)}.
+ */
+final class RenderScriptBlurEngine implements BlurEngine {
+
+    private final Context mContext;
+
+    RenderScriptBlurEngine(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public String name() {
+        return "renderscript:3";
+    }
+
+    @Override
+    public String blur(Pixels pixels) {
+        // Decoded bitmaps are blurred as they are, without copying them into an array and back
+        if (pixels instanceof BitmapPixels) {
+            final BitmapPixels bitmapPixels = (BitmapPixels) pixels;
+            final Bitmap input = bitmapPixels.getBitmap();
+            if (input != null) {
+                try {
+                    bitmapPixels.setBitmap(blurBitmap(input));
+                } catch (OutOfMemoryError e) {
+                    return blurOnCpu(pixels, e);
+                }
+                return name();
+            }
+        }
+
+        final int width = pixels.getWidth();
+        final int height = pixels.getHeight();
+        final Bitmap input;
+        final Bitmap output;
+        try {
+            input = WorkerUtils.createBitmap(pixels.getArgb(), width, height);
+            output = blurBitmap(input);
+        } catch (OutOfMemoryError e) {
+            return blurOnCpu(pixels, e);
+        }
+        output.getPixels(pixels.getArgb(), 0, width, 0, 0, width, height);
+        input.recycle();
+        output.recycle();
+        return name();
+    }
+
+    /**
+     * The script runs as a single call that can't give way, so interactive work gets its turn
+     * right before and right after it
+     */
+    private Bitmap blurBitmap(Bitmap input) {
+        LaneScheduler.checkpoint();
+        final Bitmap output = WorkerUtils.blurBitmap(input, mContext);
+        LaneScheduler.checkpoint();
+        return output;
+    }
+
+    /**
+     * Another copy of the image doesn't fit, blur on the CPU instead. The pixels go through a
+     * {@link com.prodbymozart.workmanager.workers.core.PixelBuffer}, so a bitmap is never unpacked
+     * into an array that would need as much memory as the copy that just failed. The result is
+     * close to, but not exactly, what RenderScript gives, so it is named after the CPU blur and
+     * kept apart from RenderScript outputs.
+     *
+     * @param error ~ Error that ended the RenderScript blur, thrown if there is no room for the
+     * buffer either
+     * @return Name of the CPU blur
+     */
+    private String blurOnCpu(Pixels pixels, OutOfMemoryError error) {
+        try {
+            return CpuBlurEngine.blurOffHeap(pixels, CpuBlur.DEFAULT_RADIUS,
+                    mContext.getCacheDir());
+        } catch (IOException e) {
+            error.addSuppressed(e);
+            throw error;
+        }
+    }
+}
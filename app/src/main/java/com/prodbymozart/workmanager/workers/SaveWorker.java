@@ -16,70 +16,69 @@
 
 package com.prodbymozart.workmanager.workers;
 
-import android.annotation.SuppressLint;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
-import android.provider.MediaStore;
 import android.support.annotation.NonNull;
-import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.work.Data;
 import androidx.work.Worker;
+import com.prodbymozart.workmanager.workers.core.JobProgress;
+import com.prodbymozart.workmanager.workers.core.SavePipeline;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
+import static com.prodbymozart.workmanager.Constants.KEY_BLUR_LEVEL;
 import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URI;
+import static com.prodbymozart.workmanager.Constants.KEY_IMAGE_URIS;
 
 public class SaveWorker extends Worker {
     private static final String TAG = SaveWorker.class.getSimpleName();
-    private static final String TITLE = "Blurred Image";
-
-    /**
-     * Suppress since Android Studio will complain that we shouldn't be using a final here
-     */
-    @SuppressLint("ConstantLocale")
-    private static final SimpleDateFormat DATE_FORMATTER =
-            new SimpleDateFormat("yyyy.MM.dd 'at' HH:mm:ss z", Locale.getDefault());
 
     @NonNull
     @Override
     public WorkerResult doWork() {
         final Context context = getApplicationContext();
-        final ContentResolver resolver = context.getContentResolver();
         final String resourceUri = getInputData().getString(KEY_IMAGE_URI, null);
+        final String[] resourceUris = getInputData().getStringArray(KEY_IMAGE_URIS);
 
         // Simulate long running process
         WorkerUtils.makeStatusNotification("Saving Image...", context);
         WorkerUtils.sleep();
 
         try {
-            final Bitmap bitmap = BitmapFactory.decodeStream(
-                    resolver.openInputStream(Uri.parse(resourceUri)));
-            final String imageUrl = MediaStore.Images.Media.insertImage(resolver, bitmap, TITLE,
-                    DATE_FORMATTER.format(new Date()));
+            // Saves are never decoded smaller, the user would get a worse image than they asked for
+            final SavePipeline pipeline = new SavePipeline(
+                    new ContentResolverPixelSource(context, true, false),
+                    new MediaStorePixelSink(context),
+                    (stage, step, steps) -> Log.d(TAG, String.format("%s %d/%d", stage, step,
+                            steps)));
 
-            // Fail the worker if the imageUrl is null.
-            if (TextUtils.isEmpty(imageUrl)) {
-                Log.e(TAG, "Writing to MediaStore failed");
-                return WorkerResult.FAILURE;
+            // Multi-image jobs save every image, in the order they were picked
+            final String[] imageUrls;
+            if (resourceUris != null && resourceUris.length > 0) {
+                imageUrls = new String[resourceUris.length];
+                for (int i = 0; i < resourceUris.length; i++) {
+                    imageUrls[i] = pipeline.run(resourceUris[i]);
+                }
+            } else {
+                imageUrls = new String[]{pipeline.run(resourceUri)};
             }
+            final String imageUrl = imageUrls[0];
 
-            // Saving the imageUri to the output data. The view model should get notified since
-            // the live data is observing the tag associated with this worker.
-            final Data data = new Data.Builder().putString(KEY_IMAGE_URI, imageUrl).build();
+            // Saving the imageUri to the output data, and telling the view model the whole job
+            // is done
+            final Data data = new Data.Builder()
+                    .putString(KEY_IMAGE_URI, imageUrl)
+                    .putStringArray(KEY_IMAGE_URIS, imageUrls).build();
             setOutputData(data);
+            final int steps = getInputData().getInt(KEY_BLUR_LEVEL, 1);
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.SUCCEEDED, steps, steps,
+                    imageUrl);
 
             // Worker was successful
             Log.d(TAG, "Worker was successful!");
             return WorkerResult.SUCCESS;
-        } catch (Exception exception) {
+        } catch (Exception | OutOfMemoryError exception) {
             Log.e(TAG, "Unable to save image to gallery...", exception);
+            WorkerUtils.publishProgress(getInputData(), JobProgress.State.FAILED, 0, 0, null);
             return WorkerResult.FAILURE;
         }
     }
@@ -18,10 +18,12 @@ package com.prodbymozart.workmanager.workers;
 
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.WorkerThread;
 import android.support.v4.app.NotificationCompat;
@@ -32,13 +34,27 @@ import android.support.v8.renderscript.RenderScript;
 import android.support.v8.renderscript.ScriptIntrinsicBlur;
 import android.util.Log;
 
+import androidx.work.Data;
 import com.prodbymozart.workmanager.Constants;
 import com.prodbymozart.workmanager.R;
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.core.BlurEngine;
+import com.prodbymozart.workmanager.workers.core.ContentHash;
+import com.prodbymozart.workmanager.workers.core.CpuBlurEngine;
+import com.prodbymozart.workmanager.workers.core.JobProgress;
+import com.prodbymozart.workmanager.workers.core.MaskedBlurEngine;
+import com.prodbymozart.workmanager.workers.core.PixelBuffer;
+import com.prodbymozart.workmanager.workers.core.ProgressBus;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import static com.prodbymozart.workmanager.Constants.CHANNEL_ID;
 import static com.prodbymozart.workmanager.Constants.DELAY_TIME_MILLIS;
@@ -46,6 +62,8 @@ import static com.prodbymozart.workmanager.Constants.DELAY_TIME_MILLIS;
 public final class WorkerUtils {
     private static final String TAG = WorkerUtils.class.getSimpleName();
 
+    private static OutputIndex sOutputIndex;
+
     /**
      * Create a Notification that is shown as a heads-up notification if possible.
      *
@@ -85,6 +103,23 @@ public final class WorkerUtils {
         NotificationManagerCompat.from(context).notify(Constants.NOTIFICATION_ID, builder.build());
     }
 
+    /**
+     * Publishes progress of the job a worker belongs to. Workers of jobs that didn't ask for
+     * progress, i.e. without {@code Constants.KEY_JOB_ID}, publish nothing.
+     *
+     * @param input ~ Input data of the worker
+     * @param state ~ State of the job
+     * @param step ~ Number of steps done so far
+     * @param steps ~ Total number of steps
+     * @param outputUri ~ Output of the job, or null
+     */
+    static void publishProgress(@NonNull Data input, @NonNull JobProgress.State state, int step,
+            int steps, String outputUri) {
+        final String jobId = input.getString(Constants.KEY_JOB_ID, null);
+        if (jobId == null) return;
+        ProgressBus.getDefault().publish(new JobProgress(jobId, state, step, steps, outputUri));
+    }
+
     /**
      * Method for sleeping for a fixed about of time to emulate slower work
      */
@@ -137,30 +172,205 @@ public final class WorkerUtils {
     }
 
     /**
-     * Writes bitmap to a temporary file and returns the Uri for the file
+     * Creates the blur engine selected through {@code Constants.KEY_BLUR_ENGINE}, limited to a
+     * mask if there is one. RenderScript always processes the whole image, so masked blurs run
+     * on the CPU whatever engine was selected.
+     *
+     * @param context ~ Application context
+     * @param engine ~ One of the {@code Constants.BLUR_ENGINE_*} values
+     * @param mask ~ Rectangles from {@code Constants.KEY_BLUR_MASK}, or null to blur everything
+     * @return The blur engine
+     */
+    static BlurEngine createBlurEngine(@NonNull Context context, int engine, int[] mask) {
+        if (mask != null && mask.length > 0) {
+            return new MaskedBlurEngine(engine != Constants.BLUR_ENGINE_CPU_PACKED,
+                    CpuBlur.DEFAULT_RADIUS, mask);
+        }
+
+        switch (engine) {
+            case Constants.BLUR_ENGINE_CPU_PACKED:
+                return new CpuBlurEngine(false, CpuBlur.DEFAULT_RADIUS);
+            case Constants.BLUR_ENGINE_CPU_PLANAR:
+                return new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS);
+            default:
+                return new RenderScriptBlurEngine(context);
+        }
+    }
+
+    /**
+     * Copies the pixels of a Bitmap into a new ARGB array
+     *
+     * @param bitmap ~ Bitmap to read
+     * @return ARGB pixels, row major
+     */
+    static int[] getPixels(@NonNull Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return pixels;
+    }
+
+    /**
+     * Creates an ARGB_8888 Bitmap from ARGB pixels
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @return The new Bitmap
+     */
+    static Bitmap createBitmap(@NonNull int[] pixels, int width, int height) {
+        final Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        output.setPixels(pixels, 0, width, 0, 0, width, height);
+        return output;
+    }
+
+    /**
+     * Copies the pixels of an ARGB_8888 Bitmap off the heap
+     *
+     * @param bitmap ~ Bitmap to copy
+     * @param spillDirectory ~ Directory for the file backing large buffers, or null
+     * @return The pixels, which the caller has to close
+     * @throws IOException If the backing file can't be created
+     */
+    static PixelBuffer copyToPixelBuffer(@NonNull Bitmap bitmap, File spillDirectory)
+            throws IOException {
+        final PixelBuffer buffer =
+                PixelBuffer.allocate(bitmap.getWidth(), bitmap.getHeight(), spillDirectory);
+        bitmap.copyPixelsToBuffer(buffer.getBuffer());
+        return buffer;
+    }
+
+    /**
+     * Copies pixels kept off the heap back into a mutable ARGB_8888 Bitmap of the same size
+     *
+     * @param buffer ~ Pixels to copy
+     * @param bitmap ~ Bitmap to copy into
+     */
+    static void copyFromPixelBuffer(@NonNull PixelBuffer buffer, @NonNull Bitmap bitmap) {
+        bitmap.copyPixelsFromBuffer(buffer.getBuffer());
+    }
+
+    /**
+     * Reads the whole content of a Uri. Reading it once lets the same bytes be hashed for the
+     * output key and decoded.
+     *
+     * The Uri is opened as a {@link ParcelFileDescriptor}. When it is backed by a local file, its
+     * size is known up front and the file is read straight into an array of exactly that size.
+     * Otherwise, e.g. for pipes from remote providers, it is streamed.
+     *
+     * @param resolver ~ Content resolver
+     * @param uri ~ Uri to read
+     * @return Content of the Uri
+     * @throws IOException If the Uri can't be read
+     */
+    @WorkerThread
+    static byte[] readBytes(@NonNull ContentResolver resolver, @NonNull Uri uri)
+            throws IOException {
+        final ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) throw new FileNotFoundException("Unable to open " + uri);
+
+        try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor)) {
+            final long size = descriptor.getStatSize();
+            if (size >= 0 && size <= Integer.MAX_VALUE) {
+                final byte[] content = new byte[(int) size];
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                final FileChannel channel = in.getChannel();
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Keep reading until the array is full
+                }
+
+                // The file shrank after it was opened
+                return buffer.hasRemaining()
+                        ? Arrays.copyOf(content, buffer.position()) : content;
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Finds an output that was written earlier for the same key
+     *
+     * @param applicationContext Application context
+     * @param key Output key from {@link ContentHash#outputKey(byte[], String...)}
+     * @return Uri of the existing output, or null if there is none
+     */
+    static Uri findOutput(@NonNull Context applicationContext, @NonNull String key) {
+        final File outputFile = getOutputIndex(applicationContext).lookup(key);
+        return outputFile == null ? null : Uri.fromFile(outputFile);
+    }
+
+    /**
+     * Writes bitmap to the output file for the key and returns the Uri for the file. Nothing is
+     * written if the output already exists. The output is only recorded in the index once it is
+     * in place.
      *
      * @param applicationContext Application context
-     * @param bitmap Bitmap to write to temp file
-     * @return Uri for temp file with bitmap
+     * @param bitmap Bitmap to write to the output file
+     * @param key Output key from {@link ContentHash#outputKey(byte[], String...)}
+     * @return Uri for output file with bitmap
+     * @throws IOException If the output can't be written
      */
     static Uri writeBitmapToFile(@NonNull Context applicationContext, @NonNull Bitmap bitmap,
-            int number) {
-        // final String name = String.format("blur-output-%s.jpg", String.valueOf(number));
-        final String name = String.format("blur-output-%s.jpg", UUID.randomUUID().toString());
-        final File outputDir = new File(applicationContext.getFilesDir(), Constants.OUTPUT_PATH);
+            @NonNull String key) throws IOException {
+        final String name = String.format("blur-output-%s.jpg", key);
+        final File outputDir = getOutputDirectory(applicationContext);
 
-        if (!outputDir.exists()) outputDir.mkdirs();
+        if (!outputDir.exists() && !outputDir.mkdirs() && !outputDir.isDirectory()) {
+            throw new IOException("Unable to create " + outputDir);
+        }
         final File outputFile = new File(outputDir, name);
 
-        try (FileOutputStream out = new FileOutputStream(outputFile)) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!outputFile.exists()) {
+            // Write to a temporary file and rename, so a half written file is never mistaken for
+            // a finished output
+            final File tempFile = File.createTempFile("blur-output-", ".tmp", outputDir);
+            try {
+                try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                    if (!bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out)) {
+                        throw new IOException("Unable to compress " + name);
+                    }
+                }
+
+                // Another chain may have written the same output meanwhile, which is just as good
+                if (!tempFile.renameTo(outputFile) && !outputFile.exists()) {
+                    throw new IOException("Unable to rename " + tempFile + " to " + name);
+                }
+            } finally {
+                if (tempFile.exists()) tempFile.delete();
+            }
         }
 
+        getOutputIndex(applicationContext).record(key, outputFile);
         return Uri.fromFile(outputFile);
     }
 
+    /**
+     * @param applicationContext Application context
+     * @return Directory all outputs are written to
+     */
+    static File getOutputDirectory(@NonNull Context applicationContext) {
+        return new File(applicationContext.getFilesDir(), Constants.OUTPUT_PATH);
+    }
+
+    /**
+     * @param applicationContext Application context
+     * @return Index of the output directory, shared by every worker in the process
+     */
+    static synchronized OutputIndex getOutputIndex(@NonNull Context applicationContext) {
+        if (sOutputIndex == null) {
+            sOutputIndex = new OutputIndex(getOutputDirectory(applicationContext));
+        }
+        return sOutputIndex;
+    }
+
     // Disallow instantiation
     private WorkerUtils() {
     }
@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.blur;
+
+import java.nio.IntBuffer;
+
+/**
+ * Pure Java box blur used when RenderScript is not wanted (or not available).
+ *
+ * Two layouts are provided that produce bit-identical output:
+ *
+ * - Packed: works directly on the ARGB ints, unpacking each channel per pixel.
+ * - Planar: splits the image into one byte plane per channel, so the inner loops only touch
+ * primitive arrays, use fixed-point arithmetic and contain no per-pixel branches. Edge clamping
+ * is done in separate prologue and epilogue loops so the steady state loop is as simple as
+ * possible for the JIT / ART compiler.
+ *
+ * A radius of 0 leaves the pixels unchanged.
+ */
+public final class CpuBlur {
+
+    /**
+     * Radius matching the RenderScript blur in {@code WorkerUtils#blurBitmap}
+     */
+    public static final int DEFAULT_RADIUS = 3;
+
+    /**
+     * Largest supported radius. Keeps the fixed-point accumulators inside an int.
+     */
+    public static final int MAX_RADIUS = 25;
+
+    /**
+     * Rows, or columns for the vertical pass over packed pixels, processed between checkpoints
+     */
+    public static final int CHECKPOINT_ROWS = 64;
+
+    private static final Runnable NO_CHECKPOINT = () -> {
+    };
+
+    private static final int FP_SHIFT = 16;
+    private static final int FP_HALF = 1 << (FP_SHIFT - 1);
+
+    /**
+     * Blurs the packed ARGB pixels in place, one channel at a time per pixel.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     */
+    public static void blurPacked(int[] pixels, int width, int height, int radius) {
+        blurPacked(pixels, width, height, radius, NO_CHECKPOINT);
+    }
+
+    /**
+     * Blurs the packed ARGB pixels in place, one channel at a time per pixel, calling back every
+     * {@link #CHECKPOINT_ROWS} rows or columns so long running work can be preempted.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     * @param checkpoint ~ Called between blocks of rows or columns
+     */
+    public static void blurPacked(int[] pixels, int width, int height, int radius,
+            Runnable checkpoint) {
+        checkArguments(pixels, width, height, radius);
+        if (radius == 0) return;
+        blurPacked(pixels, new int[pixels.length], width, height, radius, checkpoint);
+    }
+
+    /**
+     * @param scratch ~ Scratch pixels of at least {@code width * height} entries
+     */
+    private static void blurPacked(int[] pixels, int[] scratch, int width, int height,
+            int radius, Runnable checkpoint) {
+        final int mul = reciprocal(radius);
+
+        // Horizontal pass: pixels -> scratch
+        for (int y = 0; y < height; y++) {
+            if (y % CHECKPOINT_ROWS == CHECKPOINT_ROWS - 1) checkpoint.run();
+            final int row = y * width;
+            int sa = 0, sr = 0, sg = 0, sb = 0;
+            for (int k = -radius; k <= radius; k++) {
+                final int p = pixels[row + clamp(k, width)];
+                sa += p >>> 24;
+                sr += (p >> 16) & 0xFF;
+                sg += (p >> 8) & 0xFF;
+                sb += p & 0xFF;
+            }
+            for (int x = 0; x < width; x++) {
+                scratch[row + x] = pack(sa, sr, sg, sb, mul);
+                final int in = pixels[row + clamp(x + radius + 1, width)];
+                final int out = pixels[row + clamp(x - radius, width)];
+                sa += (in >>> 24) - (out >>> 24);
+                sr += ((in >> 16) & 0xFF) - ((out >> 16) & 0xFF);
+                sg += ((in >> 8) & 0xFF) - ((out >> 8) & 0xFF);
+                sb += (in & 0xFF) - (out & 0xFF);
+            }
+        }
+
+        // Vertical pass: scratch -> pixels
+        for (int x = 0; x < width; x++) {
+            if (x % CHECKPOINT_ROWS == CHECKPOINT_ROWS - 1) checkpoint.run();
+            int sa = 0, sr = 0, sg = 0, sb = 0;
+            for (int k = -radius; k <= radius; k++) {
+                final int p = scratch[clamp(k, height) * width + x];
+                sa += p >>> 24;
+                sr += (p >> 16) & 0xFF;
+                sg += (p >> 8) & 0xFF;
+                sb += p & 0xFF;
+            }
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = pack(sa, sr, sg, sb, mul);
+                final int in = scratch[clamp(y + radius + 1, height) * width + x];
+                final int out = scratch[clamp(y - radius, height) * width + x];
+                sa += (in >>> 24) - (out >>> 24);
+                sr += ((in >> 16) & 0xFF) - ((out >> 16) & 0xFF);
+                sg += ((in >> 8) & 0xFF) - ((out >> 8) & 0xFF);
+                sb += (in & 0xFF) - (out & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Blurs the packed ARGB pixels in place by way of planar channels.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     */
+    public static void blurPlanar(int[] pixels, int width, int height, int radius) {
+        blurPlanar(pixels, width, height, radius, NO_CHECKPOINT);
+    }
+
+    /**
+     * Blurs the packed ARGB pixels in place by way of planar channels, calling back every
+     * {@link #CHECKPOINT_ROWS} rows of every channel so long running work can be preempted.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     * @param checkpoint ~ Called between blocks of rows
+     */
+    public static void blurPlanar(int[] pixels, int width, int height, int radius,
+            Runnable checkpoint) {
+        checkArguments(pixels, width, height, radius);
+        if (radius == 0) return;
+        blurPlanar(pixels, width, height, radius, new Planes(), checkpoint);
+    }
+
+    /**
+     * Blurs the packed ARGB pixels in place by way of planar channels, keeping the planes in
+     * scratch memory that is reused between calls. Blurring many small images, such as the tiles
+     * of a larger one, then doesn't allocate the planes every time.
+     *
+     * @param pixels ~ ARGB pixels, row major. Only the first {@code width * height} are blurred.
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     * @param planes ~ Scratch memory, grown when the image is larger than any before
+     */
+    public static void blurPlanar(int[] pixels, int width, int height, int radius,
+            Planes planes) {
+        checkArguments(pixels, width, height, radius);
+        if (radius == 0) return;
+        blurPlanar(pixels, width, height, radius, planes, NO_CHECKPOINT);
+    }
+
+    private static void blurPlanar(int[] pixels, int width, int height, int radius,
+            Planes planes, Runnable checkpoint) {
+        final int size = width * height;
+        planes.ensure(size, width);
+        final byte[] a = planes.mA, r = planes.mR, g = planes.mG, b = planes.mB;
+        final byte[] scratch = planes.mScratch;
+        final int[] columns = planes.mColumns;
+
+        final int block = CHECKPOINT_ROWS * width;
+        for (int from = 0; from < size; from += block) {
+            split(pixels, a, r, g, b, from, Math.min(from + block, size));
+            checkpoint.run();
+        }
+        blurPlane(a, scratch, columns, width, height, radius, checkpoint);
+        blurPlane(r, scratch, columns, width, height, radius, checkpoint);
+        blurPlane(g, scratch, columns, width, height, radius, checkpoint);
+        blurPlane(b, scratch, columns, width, height, radius, checkpoint);
+        for (int from = 0; from < size; from += block) {
+            checkpoint.run();
+            merge(a, r, g, b, pixels, from, Math.min(from + block, size));
+        }
+    }
+
+    /**
+     * Blurs the packed ARGB pixels in place, a band of rows at a time. Gives the same output as
+     * {@link #blurPacked(int[], int, int, int)}, but only needs memory for one band instead of a
+     * second copy of the whole image, so it is the fallback when memory is short.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     * @param bandHeight ~ Number of rows blurred at a time, at least {@code radius}
+     * @param checkpoint ~ Called between bands
+     */
+    public static void blurBanded(int[] pixels, int width, int height, int radius,
+            int bandHeight, Runnable checkpoint) {
+        checkArguments(pixels, width, height, radius);
+        blurBanded(IntBuffer.wrap(pixels), width, height, radius, bandHeight, checkpoint);
+    }
+
+    /**
+     * Blurs pixels in a buffer in place, a band of rows at a time. Only the band is copied onto
+     * the heap, so this is how pixels kept off the heap are blurred.
+     *
+     * @param pixels ~ Pixels, row major, four channels of a byte each in any order
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 0 and {@link #MAX_RADIUS}
+     * @param bandHeight ~ Number of rows blurred at a time, at least {@code radius}
+     * @param checkpoint ~ Called between bands
+     */
+    public static void blurBanded(IntBuffer pixels, int width, int height, int radius,
+            int bandHeight, Runnable checkpoint) {
+        if (width <= 0 || height <= 0 || pixels.limit() < width * height) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Invalid blur radius " + radius);
+        }
+        if (bandHeight < Math.max(radius, 1)) {
+            throw new IllegalArgumentException("Invalid band height");
+        }
+        if (radius == 0) return;
+
+        final int maxRows = Math.min(bandHeight + 2 * radius, height);
+        final int[] band = new int[maxRows * width];
+        final int[] scratch = new int[band.length];
+
+        // Bands read up to radius rows above themselves, which the band before already
+        // overwrote. Those rows are kept here before they are overwritten.
+        final int[] carry = new int[radius * width];
+        int carryRows = 0;
+
+        for (int top = 0; top < height; top += bandHeight) {
+            final int bottom = Math.min(top + bandHeight, height);
+            final int readTop = Math.max(top - radius, 0);
+            final int readBottom = Math.min(bottom + radius, height);
+            final int rows = readBottom - readTop;
+
+            // Rows above the band come from the carry, the rest from the untouched image
+            final int above = top - readTop;
+            System.arraycopy(carry, (carryRows - above) * width, band, 0, above * width);
+            pixels.position(top * width);
+            pixels.get(band, above * width, (rows - above) * width);
+
+            // Keep the original rows the next band needs before they are overwritten
+            carryRows = Math.min(radius, bottom - top);
+            pixels.position((bottom - carryRows) * width);
+            pixels.get(carry, 0, carryRows * width);
+
+            blurPacked(band, scratch, width, rows, radius, NO_CHECKPOINT);
+            pixels.position(top * width);
+            pixels.put(band, above * width, (bottom - top) * width);
+            checkpoint.run();
+        }
+        pixels.rewind();
+    }
+
+    /**
+     * Splits packed ARGB pixels into one plane per channel.
+     */
+    public static void split(int[] pixels, byte[] a, byte[] r, byte[] g, byte[] b) {
+        split(pixels, a, r, g, b, 0, pixels.length);
+    }
+
+    private static void split(int[] pixels, byte[] a, byte[] r, byte[] g, byte[] b, int from,
+            int to) {
+        for (int i = from; i < to; i++) {
+            final int p = pixels[i];
+            a[i] = (byte) (p >>> 24);
+            r[i] = (byte) (p >> 16);
+            g[i] = (byte) (p >> 8);
+            b[i] = (byte) p;
+        }
+    }
+
+    /**
+     * Packs one plane per channel back into ARGB pixels.
+     */
+    public static void merge(byte[] a, byte[] r, byte[] g, byte[] b, int[] pixels) {
+        merge(a, r, g, b, pixels, 0, pixels.length);
+    }
+
+    private static void merge(byte[] a, byte[] r, byte[] g, byte[] b, int[] pixels, int from,
+            int to) {
+        for (int i = from; i < to; i++) {
+            pixels[i] = (a[i] & 0xFF) << 24 | (r[i] & 0xFF) << 16 | (g[i] & 0xFF) << 8
+                    | (b[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Blurs a single channel plane in place.
+     *
+     * @param plane ~ Channel values, row major
+     * @param scratch ~ Scratch plane of at least the same length
+     * @param columns ~ Scratch column sums of at least {@code width} entries
+     */
+    public static void blurPlane(byte[] plane, byte[] scratch, int[] columns, int width,
+            int height, int radius) {
+        blurPlane(plane, scratch, columns, width, height, radius, NO_CHECKPOINT);
+    }
+
+    /**
+     * Blurs a single channel plane in place, calling back every {@link #CHECKPOINT_ROWS} rows of
+     * each pass.
+     *
+     * @param plane ~ Channel values, row major
+     * @param scratch ~ Scratch plane of at least the same length
+     * @param columns ~ Scratch column sums of at least {@code width} entries
+     * @param checkpoint ~ Called between blocks of rows
+     */
+    public static void blurPlane(byte[] plane, byte[] scratch, int[] columns, int width,
+            int height, int radius, Runnable checkpoint) {
+        final int mul = reciprocal(radius);
+        for (int y = 0; y < height; y++) {
+            if (y % CHECKPOINT_ROWS == CHECKPOINT_ROWS - 1) checkpoint.run();
+            blurRow(plane, scratch, y * width, width, radius, mul);
+        }
+        blurColumns(scratch, plane, columns, width, height, radius, mul, checkpoint);
+    }
+
+    /**
+     * Horizontal sliding window over one row. The window only needs clamping within
+     * {@code radius} pixels of either edge, so those parts run in their own loops.
+     */
+    private static void blurRow(byte[] src, byte[] dst, int row, int width, int radius,
+            int mul) {
+        final int last = row + width - 1;
+        int sum = 0;
+        for (int k = -radius; k <= radius; k++) {
+            sum += src[row + clamp(k, width)] & 0xFF;
+        }
+
+        final int head = Math.min(radius, width);
+        final int tail = Math.max(head, width - radius - 1);
+        int x = 0;
+
+        // Prologue: the trailing edge of the window is clamped to the first pixel
+        for (; x < head; x++) {
+            dst[row + x] = (byte) ((sum * mul + FP_HALF) >>> FP_SHIFT);
+            sum += (src[Math.min(row + x + radius + 1, last)] & 0xFF) - (src[row] & 0xFF);
+        }
+
+        // Steady state: both edges of the window are inside the row
+        for (int i = row + x, in = i + radius + 1, out = i - radius, end = row + tail;
+                i < end; i++, in++, out++) {
+            dst[i] = (byte) ((sum * mul + FP_HALF) >>> FP_SHIFT);
+            sum += (src[in] & 0xFF) - (src[out] & 0xFF);
+        }
+        x = tail;
+
+        // Epilogue: the leading edge of the window is clamped to the last pixel
+        for (; x < width; x++) {
+            dst[row + x] = (byte) ((sum * mul + FP_HALF) >>> FP_SHIFT);
+            sum += (src[last] & 0xFF) - (src[row + Math.max(x - radius, 0)] & 0xFF);
+        }
+    }
+
+    /**
+     * Vertical sliding window. Keeps a running sum per column so every inner loop walks a row
+     * contiguously instead of striding down a column.
+     */
+    private static void blurColumns(byte[] src, byte[] dst, int[] columns, int width,
+            int height, int radius, int mul, Runnable checkpoint) {
+        final int lastRow = (height - 1) * width;
+        for (int x = 0; x < width; x++) {
+            columns[x] = 0;
+        }
+        for (int k = -radius; k <= radius; k++) {
+            final int row = clamp(k, height) * width;
+            for (int x = 0; x < width; x++) {
+                columns[x] += src[row + x] & 0xFF;
+            }
+        }
+
+        final int head = Math.min(radius, height);
+        final int tail = Math.max(head, height - radius - 1);
+        int y = 0;
+
+        // Prologue: rows leaving the window are clamped to the first row
+        for (; y < head; y++) {
+            final int in = Math.min(y + radius + 1, height - 1) * width;
+            emitRow(src, dst, columns, y * width, in, 0, width, mul);
+        }
+
+        // Steady state
+        for (; y < tail; y++) {
+            if (y % CHECKPOINT_ROWS == CHECKPOINT_ROWS - 1) checkpoint.run();
+            emitRow(src, dst, columns, y * width, (y + radius + 1) * width,
+                    (y - radius) * width, width, mul);
+        }
+
+        // Epilogue: rows entering the window are clamped to the last row
+        for (; y < height; y++) {
+            emitRow(src, dst, columns, y * width, lastRow, Math.max(y - radius, 0) * width, width,
+                    mul);
+        }
+    }
+
+    private static void emitRow(byte[] src, byte[] dst, int[] columns, int row, int in, int out,
+            int width, int mul) {
+        for (int x = 0; x < width; x++) {
+            final int sum = columns[x];
+            dst[row + x] = (byte) ((sum * mul + FP_HALF) >>> FP_SHIFT);
+            columns[x] = sum + (src[in + x] & 0xFF) - (src[out + x] & 0xFF);
+        }
+    }
+
+    private static int pack(int sa, int sr, int sg, int sb, int mul) {
+        return ((sa * mul + FP_HALF) >>> FP_SHIFT) << 24
+                | ((sr * mul + FP_HALF) >>> FP_SHIFT) << 16
+                | ((sg * mul + FP_HALF) >>> FP_SHIFT) << 8
+                | ((sb * mul + FP_HALF) >>> FP_SHIFT);
+    }
+
+    /**
+     * Fixed-point reciprocal of the window size, so dividing a window sum is a multiply and a
+     * shift.
+     */
+    private static int reciprocal(int radius) {
+        final int window = 2 * radius + 1;
+        return ((1 << FP_SHIFT) + window / 2) / window;
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(index, length - 1));
+    }
+
+    private static void checkArguments(int[] pixels, int width, int height, int radius) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Invalid blur radius " + radius);
+        }
+    }
+
+    /**
+     * Scratch memory of the planar layout: one plane per channel, a scratch plane and the column
+     * sums. Grows to the largest image it was used for and is never shrunk. Not thread safe, so
+     * every thread needs its own.
+     */
+    public static final class Planes {
+        private byte[] mA = new byte[0];
+        private byte[] mR = mA, mG = mA, mB = mA, mScratch = mA;
+        private int[] mColumns = new int[0];
+
+        void ensure(int size, int width) {
+            if (mA.length < size) {
+                mA = new byte[size];
+                mR = new byte[size];
+                mG = new byte[size];
+                mB = new byte[size];
+                mScratch = new byte[size];
+            }
+            if (mColumns.length < width) mColumns = new int[width];
+        }
+    }
+
+    // Disallow instantiation
+    private CpuBlur() {
+    }
+}
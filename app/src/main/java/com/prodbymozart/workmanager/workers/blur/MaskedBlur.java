@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.blur;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Blurs only the parts of an image covered by a mask, e.g. faces or license plates.
+ *
+ * The mask is a list of rectangles. The image is split into tiles and only tiles that intersect
+ * a rectangle are blurred, each together with a halo of {@code radius} pixels so the result
+ * inside the mask is identical to blurring the whole image. Only pixels inside the mask are
+ * written back; the rest of the image is left untouched. The work therefore scales with the
+ * masked area instead of the image area, up to {@link #FULL_IMAGE_COVERAGE} where a single blur
+ * of the whole image is cheaper than the halos.
+ */
+public final class MaskedBlur {
+
+    /**
+     * Size of the output area of a tile
+     */
+    static final int TILE_SIZE = 64;
+
+    /**
+     * Above this fraction of masked tiles the halos cost more than they save, and the whole
+     * image is blurred instead
+     */
+    static final double FULL_IMAGE_COVERAGE = 0.5;
+
+    /**
+     * Blurs the pixels under the mask in place.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius, between 1 and {@link CpuBlur#MAX_RADIUS}
+     * @param rects ~ Mask as {@code left, top, right, bottom} quadruples, right and bottom
+     * exclusive. Rectangles may overlap and are clipped to the image.
+     * @param planar ~ True to blur tiles by way of channel planes, see {@link CpuBlur}
+     * @param checkpoint ~ Called between tiles
+     * @return Number of tiles blurred
+     */
+    public static int blur(int[] pixels, int width, int height, int radius, int[] rects,
+            boolean planar, Runnable checkpoint) {
+        if (rects.length % 4 != 0) {
+            throw new IllegalArgumentException("Mask must hold left, top, right, bottom values");
+        }
+        final int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        final int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        final boolean[] marked = markTiles(width, height, rects, columns, rows);
+        final int count = count(marked);
+
+        if (count > marked.length * FULL_IMAGE_COVERAGE) {
+            final int[] copy = pixels.clone();
+            if (planar) {
+                CpuBlur.blurPlanar(copy, width, height, radius, checkpoint);
+            } else {
+                CpuBlur.blurPacked(copy, width, height, radius, checkpoint);
+            }
+            writeBack(pixels, width, rects, copy, 0, 0, width, height);
+            return count;
+        }
+
+        // Tiles read their halo from the untouched image, so every tile is blurred before any
+        // of them is written back. Only masked tiles are held, keeping memory in line with the
+        // masked area.
+        final List<int[]> blurred = new ArrayList<>();
+        final List<Integer> indices = new ArrayList<>();
+        final int maxTile = TILE_SIZE + 2 * radius;
+        final int[] buffer = new int[maxTile * maxTile];
+
+        for (int tile = 0; tile < marked.length; tile++) {
+            if (!marked[tile]) continue;
+            final int left = (tile % columns) * TILE_SIZE;
+            final int top = (tile / columns) * TILE_SIZE;
+            final int right = Math.min(left + TILE_SIZE, width);
+            final int bottom = Math.min(top + TILE_SIZE, height);
+
+            // Copy the tile and its halo. Where the halo is cut off by the image edge the blur
+            // clamps to the same edge pixels as it would on the whole image.
+            final int readLeft = Math.max(left - radius, 0);
+            final int readTop = Math.max(top - radius, 0);
+            final int readWidth = Math.min(right + radius, width) - readLeft;
+            final int readHeight = Math.min(bottom + radius, height) - readTop;
+            for (int y = 0; y < readHeight; y++) {
+                System.arraycopy(pixels, (readTop + y) * width + readLeft, buffer, y * readWidth,
+                        readWidth);
+            }
+
+            if (planar) {
+                CpuBlur.blurPlanar(buffer, readWidth, readHeight, radius);
+            } else {
+                CpuBlur.blurPacked(buffer, readWidth, readHeight, radius);
+            }
+
+            // Keep the output area of the tile only
+            final int tileWidth = right - left;
+            final int tileHeight = bottom - top;
+            final int[] output = new int[tileWidth * tileHeight];
+            for (int y = 0; y < tileHeight; y++) {
+                System.arraycopy(buffer, (top - readTop + y) * readWidth + (left - readLeft),
+                        output, y * tileWidth, tileWidth);
+            }
+            blurred.add(output);
+            indices.add(tile);
+            checkpoint.run();
+        }
+
+        for (int i = 0; i < blurred.size(); i++) {
+            final int tile = indices.get(i);
+            final int left = (tile % columns) * TILE_SIZE;
+            final int top = (tile / columns) * TILE_SIZE;
+            writeBack(pixels, width, rects, blurred.get(i), left, top,
+                    Math.min(left + TILE_SIZE, width), Math.min(top + TILE_SIZE, height));
+        }
+        return blurred.size();
+    }
+
+    /**
+     * @return Fraction of the tiles that intersect the mask, i.e. of the image that is actually
+     * blurred, between 0 and 1
+     */
+    public static double coverage(int width, int height, int[] rects) {
+        final int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        final int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        final boolean[] marked = markTiles(width, height, rects, columns, rows);
+        return (double) count(marked) / marked.length;
+    }
+
+    private static int count(boolean[] marked) {
+        int count = 0;
+        for (boolean tile : marked) {
+            if (tile) count++;
+        }
+        return count;
+    }
+
+    private static boolean[] markTiles(int width, int height, int[] rects, int columns,
+            int rows) {
+        final boolean[] marked = new boolean[columns * rows];
+        for (int i = 0; i + 3 < rects.length; i += 4) {
+            final int left = Math.max(rects[i], 0);
+            final int top = Math.max(rects[i + 1], 0);
+            final int right = Math.min(rects[i + 2], width);
+            final int bottom = Math.min(rects[i + 3], height);
+            if (left >= right || top >= bottom) continue;
+
+            for (int row = top / TILE_SIZE; row <= (bottom - 1) / TILE_SIZE; row++) {
+                for (int column = left / TILE_SIZE; column <= (right - 1) / TILE_SIZE; column++) {
+                    marked[row * columns + column] = true;
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Copies the blurred pixels of an area that lie inside the mask into the image
+     *
+     * @param tile ~ Blurred pixels of the area, row major
+     */
+    private static void writeBack(int[] pixels, int width, int[] rects, int[] tile,
+            int tileLeft, int tileTop, int tileRight, int tileBottom) {
+        final int tileWidth = tileRight - tileLeft;
+
+        for (int i = 0; i + 3 < rects.length; i += 4) {
+            final int left = Math.max(rects[i], tileLeft);
+            final int top = Math.max(rects[i + 1], tileTop);
+            final int right = Math.min(rects[i + 2], tileRight);
+            final int bottom = Math.min(rects[i + 3], tileBottom);
+            if (left >= right || top >= bottom) continue;
+
+            // Overlapping rectangles write the same values twice, which is harmless
+            for (int y = top; y < bottom; y++) {
+                System.arraycopy(tile, (y - tileTop) * tileWidth + (left - tileLeft), pixels,
+                        y * width + left, right - left);
+            }
+        }
+    }
+
+    // Disallow instantiation
+    private MaskedBlur() {
+    }
+}
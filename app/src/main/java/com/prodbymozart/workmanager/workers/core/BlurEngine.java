@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+/**
+ * Blurs pixels.
+ */
+public interface BlurEngine {
+
+    /**
+     * @return Name of the engine. Part of the output key, since engines give different results.
+     */
+    String name();
+
+    /**
+     * Blur the pixels in place
+     *
+     * @param pixels ~ Pixels to blur
+     * @return Name of the blur that was actually applied. That is {@link #name()}, unless the
+     * engine had to fall back to a blur that gives a different result.
+     */
+    String blur(Pixels pixels);
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * What a {@code BlurWorker} does, without any Android dependencies: read an image, blur it and
+ * write it, reusing an earlier output when the same content was blurred the same way before.
+ *
+ * Images above a size threshold are blurred in a {@link PixelBuffer} by engines that can, see
+ * {@link CpuBlurEngine#blur(PixelBuffer)}, so the Java heap never has to hold them.
+ */
+public final class BlurPipeline {
+
+    public static final String STAGE_READ = "read";
+    public static final String STAGE_BLUR = "blur";
+    public static final String STAGE_WRITE = "write";
+    public static final String STAGE_DONE = "done";
+
+    /**
+     * Images above this many bytes are blurred off the Java heap, about 4 MP
+     */
+    public static final long DEFAULT_BUFFER_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int STEPS = 3;
+
+    private final PixelSource mSource;
+    private final PixelSink mSink;
+    private final BlurEngine mEngine;
+    private final ProgressReporter mReporter;
+    private final long mBufferThreshold;
+    private final File mSpillDirectory;
+
+    /**
+     * Constructor for a pipeline that blurs every image on the heap
+     *
+     * @param source ~ Where the input is read from
+     * @param sink ~ Where the output is written to
+     * @param engine ~ Engine that does the blurring
+     * @param reporter ~ Receives progress
+     */
+    public BlurPipeline(PixelSource source, PixelSink sink, BlurEngine engine,
+            ProgressReporter reporter) {
+        this(source, sink, engine, reporter, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param source ~ Where the input is read from
+     * @param sink ~ Where the output is written to
+     * @param engine ~ Engine that does the blurring
+     * @param reporter ~ Receives progress
+     * @param bufferThreshold ~ Size in bytes above which images are blurred in a
+     * {@link PixelBuffer}, e.g. {@link #DEFAULT_BUFFER_THRESHOLD}
+     * @param spillDirectory ~ Directory for the files backing large buffers, or null, see
+     * {@link PixelBuffer#allocate(int, int, File)}
+     */
+    public BlurPipeline(PixelSource source, PixelSink sink, BlurEngine engine,
+            ProgressReporter reporter, long bufferThreshold, File spillDirectory) {
+        mSource = source;
+        mSink = sink;
+        mEngine = engine;
+        mReporter = reporter;
+        mBufferThreshold = bufferThreshold;
+        mSpillDirectory = spillDirectory;
+    }
+
+    /**
+     * Blur one image
+     *
+     * @param inputUri ~ Image to blur
+     * @return Uri of the blurred image
+     * @throws IOException If the image can't be read or written
+     */
+    public String run(String inputUri) throws IOException {
+        mReporter.onProgress(STAGE_READ, 0, STEPS);
+        final byte[] content = mSource.read(inputUri);
+        final String key = ContentHash.outputKey(content, STAGE_BLUR, mEngine.name());
+
+        // Identical input and parameters were blurred before, reuse that output
+        String outputUri = mSink.find(key);
+        if (outputUri == null) {
+            final Pixels pixels = mSource.decode(content);
+
+            mReporter.onProgress(STAGE_BLUR, 1, STEPS);
+            final String applied = blur(pixels);
+
+            // An image that had to be decoded smaller, or blurred by a fallback, is not what the
+            // key promises. Keep it under its own key so a later run that gets the real thing
+            // doesn't reuse it.
+            final String writeKey;
+            if (pixels.getSampleSize() != 1) {
+                writeKey = ContentHash.outputKey(content, STAGE_BLUR, applied,
+                        "sample:" + pixels.getSampleSize());
+            } else if (!applied.equals(mEngine.name())) {
+                writeKey = ContentHash.outputKey(content, STAGE_BLUR, applied);
+            } else {
+                writeKey = key;
+            }
+
+            mReporter.onProgress(STAGE_WRITE, 2, STEPS);
+            outputUri = mSink.write(writeKey, pixels);
+        }
+
+        mReporter.onProgress(STAGE_DONE, STEPS, STEPS);
+        return outputUri;
+    }
+
+    /**
+     * Blur with the engine, by way of a {@link PixelBuffer} if the image is large and the engine
+     * can blur one
+     *
+     * @return Name of the blur that was applied
+     */
+    private String blur(Pixels pixels) throws IOException {
+        final long bytes = 4L * pixels.getWidth() * pixels.getHeight();
+        if (bytes <= mBufferThreshold || !(mEngine instanceof CpuBlurEngine)) {
+            return mEngine.blur(pixels);
+        }
+
+        try (PixelBuffer buffer = pixels.copyToBuffer(mSpillDirectory)) {
+            final String applied = ((CpuBlurEngine) mEngine).blur(buffer);
+            pixels.copyFromBuffer(buffer);
+            return applied;
+        }
+    }
+}
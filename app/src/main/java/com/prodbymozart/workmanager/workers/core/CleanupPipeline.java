@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+/**
+ * What a {@code CleanupWorker} does, without any Android dependencies: keep the outputs of a sink
+ * within a budget.
+ */
+public final class CleanupPipeline {
+
+    private final PixelSink mSink;
+
+    /**
+     * Constructor.
+     *
+     * @param sink ~ Sink whose outputs are cleaned up
+     */
+    public CleanupPipeline(PixelSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Drop outputs until the rest fit in the budget
+     *
+     * @param maxBytes ~ Total size the outputs may take up
+     * @return Number of outputs dropped
+     */
+    public int run(long maxBytes) {
+        return mSink.trim(maxBytes);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes of image content, used as stable keys for work outputs and cached previews.
+ */
+public final class ContentHash {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Hash everything left in the stream. The stream is closed afterwards.
+     *
+     * @param in ~ Stream to hash
+     * @return Hex encoded SHA-1 of the content
+     * @throws IOException If the stream can't be read
+     */
+    public static String of(InputStream in) throws IOException {
+        final MessageDigest digest = newDigest();
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash a byte array
+     *
+     * @param content ~ Bytes to hash
+     * @return Hex encoded SHA-1 of the content
+     */
+    public static String of(byte[] content) {
+        final MessageDigest digest = newDigest();
+        digest.update(content);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash a list of strings, e.g. an input hash together with the parameters applied to it.
+     *
+     * @param parts ~ Strings to hash, in order
+     * @return Hex encoded SHA-1 of the parts
+     */
+    public static String of(String... parts) {
+        final MessageDigest digest = newDigest();
+        for (String part : parts) {
+            final byte[] bytes = String.valueOf(part).getBytes(UTF_8);
+            // Length prefix so ("ab", "c") and ("a", "bc") hash differently
+            digest.update((byte) (bytes.length >>> 24));
+            digest.update((byte) (bytes.length >>> 16));
+            digest.update((byte) (bytes.length >>> 8));
+            digest.update((byte) bytes.length);
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Creates the key of an output. Identical input content run through identical parameters
+     * always gets the same key.
+     *
+     * @param input ~ Content of the input image
+     * @param parameters ~ Everything that affects the output, e.g. the operation and its settings
+     * @return Output key
+     */
+    public static String outputKey(byte[] input, String... parameters) {
+        final String[] parts = new String[parameters.length + 1];
+        parts[0] = of(input);
+        System.arraycopy(parameters, 0, parts, 1, parameters.length);
+        return of(parts);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android and Java runtime is required to ship SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    // Disallow instantiation
+    private ContentHash() {
+    }
+}
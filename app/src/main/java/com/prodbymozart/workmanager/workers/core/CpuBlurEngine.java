@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link BlurEngine} backed by {@link CpuBlur}. Runs anywhere, including the plain JVM.
+ *
+ * Every layout gives way to interactive work every {@link CpuBlur#CHECKPOINT_ROWS} rows, see
+ * {@link LaneScheduler#checkpoint()}.
+ *
+ * When memory runs out the engine steps down instead of failing: from planar to packed, which
+ * needs less scratch memory, and from packed to banded, which only needs memory for a band of
+ * rows. Each step is counted in {@link #METRIC_DEGRADE_PACKED} and
+ * {@link #METRIC_DEGRADE_BANDED}. All of them give identical output.
+ */
+public final class CpuBlurEngine implements BlurEngine {
+
+    public static final String METRIC_DEGRADE_PACKED = "memory.degrade.blur_packed";
+    public static final String METRIC_DEGRADE_BANDED = "memory.degrade.blur_banded";
+
+    /**
+     * Rows per band when blurring banded
+     */
+    static final int BAND_HEIGHT = 64;
+
+    private final boolean mPlanar;
+    private final int mRadius;
+
+    /**
+     * Constructor.
+     *
+     * @param planar ~ True to blur separate channel planes, false to blur packed ARGB pixels
+     * @param radius ~ Blur radius
+     */
+    public CpuBlurEngine(boolean planar, int radius) {
+        mPlanar = planar;
+        mRadius = radius;
+    }
+
+    @Override
+    public String name() {
+        // Both layouts give identical output, so they share a name and therefore outputs
+        return name(mRadius);
+    }
+
+    private static String name(int radius) {
+        return "cpu:" + radius;
+    }
+
+    @Override
+    public String blur(Pixels pixels) {
+        final int[] argb = pixels.getArgb();
+        final int width = pixels.getWidth();
+        final int height = pixels.getHeight();
+
+        // Both layouts only write the pixels once they are done, so a failed attempt leaves them
+        // untouched for the next one
+        if (mPlanar) {
+            try {
+                CpuBlur.blurPlanar(argb, width, height, mRadius, LaneScheduler::checkpoint);
+                return name();
+            } catch (OutOfMemoryError e) {
+                Metrics.increment(METRIC_DEGRADE_PACKED);
+            }
+        }
+        try {
+            CpuBlur.blurPacked(argb, width, height, mRadius, LaneScheduler::checkpoint);
+        } catch (OutOfMemoryError e) {
+            blurBanded(pixels, mRadius);
+        }
+        return name();
+    }
+
+    /**
+     * Blur pixels kept off the heap in place. Only a band of rows is on the heap at a time, so
+     * this doesn't add to heap pressure however large the image is. The output is the same as
+     * for {@link #blur(Pixels)}.
+     *
+     * @param pixels ~ Pixels to blur
+     * @return Name of the blur that was applied, see {@link BlurEngine#blur(Pixels)}
+     */
+    public String blur(PixelBuffer pixels) {
+        blurBuffer(pixels, mRadius);
+        return name();
+    }
+
+    private static void blurBuffer(PixelBuffer pixels, int radius) {
+        CpuBlur.blurBanded(pixels.getPixels(), pixels.getWidth(), pixels.getHeight(), radius,
+                Math.max(BAND_HEIGHT, radius), LaneScheduler::checkpoint);
+    }
+
+    /**
+     * Blur pixels that may not be unpacked onto the heap, as the fallback of an engine that ran
+     * out of memory. The pixels are copied into a {@link PixelBuffer}, blurred there and copied
+     * back, see {@link Pixels#copyToBuffer(File)}, so only a band of rows is ever on the heap.
+     *
+     * @param pixels ~ Pixels to blur
+     * @param radius ~ Blur radius
+     * @param spillDirectory ~ Directory for the buffer of a large image, or null to keep it in
+     * memory
+     * @return Name of the blur that was applied, the same as that of a {@link CpuBlurEngine}
+     * with this radius
+     * @throws IOException If the buffer can't be created
+     */
+    public static String blurOffHeap(Pixels pixels, int radius, File spillDirectory)
+            throws IOException {
+        Metrics.increment(METRIC_DEGRADE_BANDED);
+        try (PixelBuffer buffer = pixels.copyToBuffer(spillDirectory)) {
+            blurBuffer(buffer, radius);
+            pixels.copyFromBuffer(buffer);
+        }
+        return name(radius);
+    }
+
+    /**
+     * Blur the unpacked pixels with the least memory possible, as the last step down when memory
+     * runs out
+     */
+    private static void blurBanded(Pixels pixels, int radius) {
+        Metrics.increment(METRIC_DEGRADE_BANDED);
+        CpuBlur.blurBanded(pixels.getArgb(), pixels.getWidth(), pixels.getHeight(), radius,
+                Math.max(BAND_HEIGHT, radius), LaneScheduler::checkpoint);
+    }
+}
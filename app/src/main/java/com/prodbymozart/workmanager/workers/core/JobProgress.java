@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+/**
+ * Where one job is at: its state, how many of its steps are done and, once it succeeded, where
+ * its output is. Each update replaces the previous one for the same job.
+ */
+public final class JobProgress {
+
+    public enum State {
+        ENQUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        /**
+         * @return True if no more progress follows this state
+         */
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String mJobId;
+    private final State mState;
+    private final int mStep;
+    private final int mSteps;
+    private final String mOutputUri;
+
+    /**
+     * Constructor.
+     *
+     * @param jobId ~ Job the progress is for
+     * @param state ~ State of the job
+     * @param step ~ Number of steps done so far
+     * @param steps ~ Total number of steps
+     * @param outputUri ~ Output of the job, or null if there is none (yet)
+     */
+    public JobProgress(String jobId, State state, int step, int steps, String outputUri) {
+        mJobId = jobId;
+        mState = state;
+        mStep = step;
+        mSteps = steps;
+        mOutputUri = outputUri;
+    }
+
+    public String getJobId() {
+        return mJobId;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public int getStep() {
+        return mStep;
+    }
+
+    public int getSteps() {
+        return mSteps;
+    }
+
+    public String getOutputUri() {
+        return mOutputUri;
+    }
+
+    @Override
+    public String toString() {
+        return mJobId + " " + mState + " " + mStep + "/" + mSteps;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs CPU heavy work in one of two lanes, so a user waiting on screen doesn't queue behind bulk
+ * processing.
+ *
+ * Each lane has its own bounded executor. Both lanes share a fixed number of CPU permits, and a
+ * task only runs while it holds one. Freed permits go to the interactive lane first, but after
+ * {@code backgroundShare} handoffs in a row to the interactive lane while background work was
+ * waiting, the next one goes to the background lane so it never starves.
+ *
+ * Long background tasks should call {@link #checkpoint()} at tile boundaries. When interactive
+ * work is waiting, the background task hands its permit over there and waits for the next one.
+ *
+ * Per lane, the number of tasks waiting for a permit is kept in the
+ * {@code lane.<name>.queue_depth} metric and the time until a task got its permit in the
+ * {@code lane.<name>.wait} timer.
+ */
+public final class LaneScheduler {
+
+    /**
+     * The lanes work can run in
+     */
+    public enum Lane {
+        INTERACTIVE, BACKGROUND;
+
+        /**
+         * @param name ~ Name of a lane, may be null
+         * @return The lane with the name, or {@link #BACKGROUND} if there is none
+         */
+        public static Lane fromName(String name) {
+            if (name != null) {
+                for (Lane lane : values()) {
+                    if (lane.name().equals(name)) return lane;
+                }
+            }
+            return BACKGROUND;
+        }
+
+        /**
+         * @param suffix ~ What is measured, e.g. {@code queue_depth}, {@code wait} or
+         * {@code preemptions}
+         * @return Name of the lane's metric in {@link Metrics}
+         */
+        public String metric(String suffix) {
+            return "lane." + name().toLowerCase(Locale.US) + "." + suffix;
+        }
+    }
+
+    /**
+     * Default number of handoffs in a row the interactive lane gets while background waits
+     */
+    public static final int DEFAULT_BACKGROUND_SHARE = 4;
+
+    /**
+     * Default number of tasks each lane can queue before rejecting work
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static LaneScheduler sDefault;
+
+    /**
+     * The scheduler and lane of the task running on the current thread, for checkpoints
+     */
+    private static final ThreadLocal<LaneScheduler> sCurrentScheduler = new ThreadLocal<>();
+    private static final ThreadLocal<Lane> sCurrentLane = new ThreadLocal<>();
+
+    private final Object mLock = new Object();
+    private final int mBackgroundShare;
+    private final ThreadPoolExecutor mInteractiveExecutor;
+    private final ThreadPoolExecutor mBackgroundExecutor;
+    private final AtomicInteger mInteractiveDepth = new AtomicInteger();
+    private final AtomicInteger mBackgroundDepth = new AtomicInteger();
+
+    // Guarded by mLock
+    private int mFreePermits;
+    private int mInteractiveWaiting;
+    private int mBackgroundWaiting;
+    private int mInteractiveStreak;
+
+    /**
+     * Constructor.
+     *
+     * @param permits ~ Number of tasks that can run at the same time over both lanes
+     * @param queueCapacity ~ Number of tasks each lane can queue before rejecting work
+     * @param backgroundShare ~ Handoffs in a row the interactive lane gets while background waits
+     */
+    public LaneScheduler(int permits, int queueCapacity, int backgroundShare) {
+        if (permits < 1 || queueCapacity < 1 || backgroundShare < 1) {
+            throw new IllegalArgumentException("Invalid lane configuration");
+        }
+        mFreePermits = permits;
+        mBackgroundShare = backgroundShare;
+        mInteractiveExecutor = createExecutor(Lane.INTERACTIVE, permits, queueCapacity);
+        mBackgroundExecutor = createExecutor(Lane.BACKGROUND, permits, queueCapacity);
+    }
+
+    /**
+     * @return Scheduler shared by the whole process, with one permit per processor
+     */
+    public static synchronized LaneScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new LaneScheduler(Runtime.getRuntime().availableProcessors(),
+                    DEFAULT_QUEUE_CAPACITY, DEFAULT_BACKGROUND_SHARE);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Queue a task in a lane
+     *
+     * @param lane ~ Lane to run the task in
+     * @param task ~ Task to run
+     * @return Future of the task's result
+     * @throws java.util.concurrent.RejectedExecutionException If the lane's queue is full
+     */
+    public <T> Future<T> submit(Lane lane, Callable<T> task) {
+        final long queuedAt = System.nanoTime();
+        final AtomicInteger depth = depth(lane);
+        Metrics.set(lane.metric("queue_depth"), depth.incrementAndGet());
+
+        try {
+            return executor(lane).submit(() -> {
+                try {
+                    acquire(lane);
+                } finally {
+                    Metrics.set(lane.metric("queue_depth"), depth.decrementAndGet());
+                }
+                Metrics.recordTime(lane.metric("wait"),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt));
+
+                sCurrentScheduler.set(this);
+                sCurrentLane.set(lane);
+                try {
+                    return task.call();
+                } finally {
+                    sCurrentScheduler.remove();
+                    sCurrentLane.remove();
+                    release();
+                }
+            });
+        } catch (RuntimeException e) {
+            Metrics.set(lane.metric("queue_depth"), depth.decrementAndGet());
+            throw e;
+        }
+    }
+
+    /**
+     * Run a task in a lane and wait for it
+     *
+     * @param lane ~ Lane to run the task in
+     * @param task ~ Task to run
+     * @return Result of the task
+     * @throws Exception Whatever the task threw
+     */
+    public <T> T run(Lane lane, Callable<T> task) throws Exception {
+        final Future<T> future = submit(lane, task);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Give way to interactive work. Call at tile boundaries of long running work. Does nothing
+     * outside of a background lane task or when no interactive work is waiting.
+     *
+     * @throws CancellationException If the thread was interrupted while waiting for its permit
+     */
+    public static void checkpoint() {
+        final LaneScheduler scheduler = sCurrentScheduler.get();
+        if (scheduler == null || sCurrentLane.get() != Lane.BACKGROUND) return;
+        scheduler.yieldToInteractive();
+    }
+
+    private void yieldToInteractive() {
+        synchronized (mLock) {
+            if (mInteractiveWaiting == 0) return;
+        }
+
+        Metrics.increment(Lane.BACKGROUND.metric("preemptions"));
+        release();
+        try {
+            acquire(Lane.BACKGROUND);
+        } catch (InterruptedException e) {
+            // The task still has to release a permit when it unwinds, so take one back first
+            synchronized (mLock) {
+                mFreePermits--;
+            }
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while preempted");
+        }
+    }
+
+    private void acquire(Lane lane) throws InterruptedException {
+        synchronized (mLock) {
+            if (lane == Lane.INTERACTIVE) mInteractiveWaiting++;
+            else mBackgroundWaiting++;
+
+            try {
+                while (!canTake(lane)) {
+                    mLock.wait();
+                }
+            } finally {
+                if (lane == Lane.INTERACTIVE) mInteractiveWaiting--;
+                else mBackgroundWaiting--;
+            }
+
+            mFreePermits--;
+            if (lane == Lane.BACKGROUND) {
+                mInteractiveStreak = 0;
+            } else if (mBackgroundWaiting > 0) {
+                mInteractiveStreak++;
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (mLock) {
+            mFreePermits++;
+            mLock.notifyAll();
+        }
+    }
+
+    // Must hold mLock
+    private boolean canTake(Lane lane) {
+        if (mFreePermits <= 0) return false;
+
+        final boolean backgroundsTurn = mBackgroundWaiting > 0
+                && mInteractiveStreak >= mBackgroundShare;
+        if (lane == Lane.INTERACTIVE) return !backgroundsTurn;
+        return mInteractiveWaiting == 0 || backgroundsTurn;
+    }
+
+    private ThreadPoolExecutor executor(Lane lane) {
+        return lane == Lane.INTERACTIVE ? mInteractiveExecutor : mBackgroundExecutor;
+    }
+
+    private AtomicInteger depth(Lane lane) {
+        return lane == Lane.INTERACTIVE ? mInteractiveDepth : mBackgroundDepth;
+    }
+
+    private static ThreadPoolExecutor createExecutor(Lane lane, int threads, int capacity) {
+        final AtomicInteger count = new AtomicInteger();
+        final int priority = lane == Lane.INTERACTIVE ? Thread.NORM_PRIORITY : Thread.MIN_PRIORITY;
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable,
+                            "lane-" + lane.name().toLowerCase(Locale.US) + "-"
+                                    + count.incrementAndGet());
+                    thread.setPriority(priority);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.blur.MaskedBlur;
+
+/**
+ * {@link BlurEngine} that only blurs the pixels under a mask of rectangles, see
+ * {@link MaskedBlur}.
+ *
+ * The number of tiles blurred is added to the {@code blur.masked_tiles} counter.
+ */
+public final class MaskedBlurEngine implements BlurEngine {
+
+    public static final String METRIC_TILES = "blur.masked_tiles";
+
+    private final boolean mPlanar;
+    private final int mRadius;
+    private final int[] mRects;
+
+    /**
+     * Constructor.
+     *
+     * @param planar ~ True to blur separate channel planes, false to blur packed ARGB pixels
+     * @param radius ~ Blur radius
+     * @param rects ~ Mask as {@code left, top, right, bottom} quadruples
+     */
+    public MaskedBlurEngine(boolean planar, int radius, int[] rects) {
+        mPlanar = planar;
+        mRadius = radius;
+        mRects = rects.clone();
+    }
+
+    @Override
+    public String name() {
+        // The mask changes the output, so it is part of the name
+        final StringBuilder name = new StringBuilder("cpu:").append(mRadius).append(":mask");
+        for (int value : mRects) {
+            name.append(':').append(value);
+        }
+        return name.toString();
+    }
+
+    @Override
+    public String blur(Pixels pixels) {
+        final int tiles = MaskedBlur.blur(pixels.getArgb(), pixels.getWidth(), pixels.getHeight(),
+                mRadius, scale(mRects, pixels.getSampleSize()), mPlanar,
+                LaneScheduler::checkpoint);
+        Metrics.add(METRIC_TILES, tiles);
+        return name();
+    }
+
+    /**
+     * The mask is given in the coordinates of the full size image. Scale it to an image that was
+     * decoded smaller, rounding outwards so nothing that should be blurred is left out.
+     *
+     * @param rects ~ Mask as {@code left, top, right, bottom} quadruples
+     * @param sampleSize ~ Sample size of the decoded image
+     * @return The scaled mask
+     */
+    static int[] scale(int[] rects, int sampleSize) {
+        if (sampleSize == 1) return rects;
+
+        // Negative coordinates lie outside the image and are clipped to it anyway, so rounding
+        // them towards zero instead of outwards changes nothing
+        final int[] scaled = new int[rects.length];
+        for (int i = 0; i + 3 < rects.length; i += 4) {
+            scaled[i] = rects[i] / sampleSize;
+            scaled[i + 1] = rects[i + 1] / sampleSize;
+            scaled[i + 2] = divideRoundingUp(rects[i + 2], sampleSize);
+            scaled[i + 3] = divideRoundingUp(rects[i + 3], sampleSize);
+        }
+        return scaled;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return value / divisor + (value % divisor > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Image pixels kept outside of the Java heap, four bytes per pixel, row major.
+ *
+ * Small images live in a direct {@link ByteBuffer}. Images above {@link #MAPPED_THRESHOLD} bytes
+ * are backed by a memory mapped temporary file when a spill directory is given, so they don't
+ * even count against native memory. On Android the buffer is filled and emptied with
+ * {@code Bitmap#copyPixelsToBuffer} and {@code Bitmap#copyPixelsFromBuffer}, which use RGBA byte
+ * order; the blurs treat every channel the same, so they don't care about the order.
+ *
+ * Buffers must be released with {@link #close()}, which stops counting the buffer towards the
+ * {@code pixel_buffer.live_bytes} gauge and drops it, so its memory goes back once it is
+ * collected. For a mapped buffer it also closes the file and deletes it. Where the platform allows
+ * it the file is already deleted as soon as it is mapped, so it doesn't outlive the process
+ * either way.
+ */
+public final class PixelBuffer implements Closeable {
+
+    public static final String METRIC_LIVE_BYTES = "pixel_buffer.live_bytes";
+
+    /**
+     * Size above which buffers are backed by a mapped file
+     */
+    public static final long MAPPED_THRESHOLD = 32 * 1024 * 1024;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final File mFile;
+    private final RandomAccessFile mAccess;
+    private ByteBuffer mBuffer;
+
+    private PixelBuffer(ByteBuffer buffer, int width, int height, File file,
+            RandomAccessFile access) {
+        mBuffer = buffer.order(ByteOrder.nativeOrder());
+        mWidth = width;
+        mHeight = height;
+        mFile = file;
+        mAccess = access;
+        Metrics.add(METRIC_LIVE_BYTES, buffer.capacity());
+    }
+
+    /**
+     * Allocate a buffer for an image
+     *
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param spillDirectory ~ Directory for the file backing large buffers, or null to always
+     * use direct memory
+     * @return The buffer, zero filled
+     * @throws IOException If the backing file can't be created
+     */
+    public static PixelBuffer allocate(int width, int height, File spillDirectory)
+            throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        final long bytes = (long) width * height * BYTES_PER_PIXEL;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large " + width + "x" + height);
+        }
+
+        if (bytes <= MAPPED_THRESHOLD || spillDirectory == null) {
+            return new PixelBuffer(ByteBuffer.allocateDirect((int) bytes), width, height, null,
+                    null);
+        }
+
+        final File file = File.createTempFile("pixels-", ".raw", spillDirectory);
+        RandomAccessFile access = null;
+        try {
+            access = new RandomAccessFile(file, "rw");
+            access.setLength(bytes);
+            final ByteBuffer mapped =
+                    access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+
+            // On Android and other Unix systems the mapping stays valid after the file is deleted
+            file.delete();
+            return new PixelBuffer(mapped, width, height, file, access);
+        } catch (IOException | RuntimeException e) {
+            if (access != null) access.close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * @return A view of all the bytes, positioned at the start. Views share the pixels but not
+     * their position, so each caller gets its own.
+     */
+    public synchronized ByteBuffer getBuffer() {
+        if (mBuffer == null) throw new IllegalStateException("Pixel buffer was released");
+        final ByteBuffer view = mBuffer.duplicate();
+        view.clear();
+        return view.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return A view of the pixels as ints, one per pixel, positioned at the start
+     */
+    public IntBuffer getPixels() {
+        return getBuffer().asIntBuffer();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return True if the buffer is backed by a mapped file
+     */
+    public boolean isMapped() {
+        return mFile != null;
+    }
+
+    /**
+     * Release the buffer. Any view obtained before must not be used anymore.
+     */
+    @Override
+    public synchronized void close() {
+        if (mBuffer == null) return;
+        Metrics.add(METRIC_LIVE_BYTES, -mBuffer.capacity());
+        mBuffer = null;
+        if (mAccess == null) return;
+
+        // Where the file couldn't be deleted while it was open, it can be now
+        try {
+            mAccess.close();
+        } catch (IOException e) {
+            // Nothing was written through the file itself, so nothing is lost
+        }
+        mFile.delete();
+    }
+}
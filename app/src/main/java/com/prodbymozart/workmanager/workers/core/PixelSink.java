@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.IOException;
+
+/**
+ * Where pipelines write their images to.
+ */
+public interface PixelSink {
+
+    /**
+     * @return False if the sink ignores output keys, so callers can skip computing them
+     */
+    boolean usesKeys();
+
+    /**
+     * Find an output written earlier for the same key
+     *
+     * @param key ~ Output key
+     * @return Uri of the existing output, or null if there is none
+     */
+    String find(String key);
+
+    /**
+     * Write an output
+     *
+     * @param key ~ Output key, null if the sink doesn't {@link #usesKeys() use keys}
+     * @param pixels ~ Pixels to write
+     * @return Uri of the output
+     * @throws IOException If the output can't be written
+     */
+    String write(String key, Pixels pixels) throws IOException;
+
+    /**
+     * Drop kept outputs until they fit in the budget. Sinks that don't keep outputs do nothing.
+     *
+     * @param maxBytes ~ Total size the outputs may take up
+     * @return Number of outputs dropped
+     */
+    int trim(long maxBytes);
+}
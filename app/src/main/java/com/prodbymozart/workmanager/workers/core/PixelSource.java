@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.IOException;
+
+/**
+ * Where pipelines read their images from.
+ */
+public interface PixelSource {
+
+    /**
+     * Read the encoded content of an image. The content is hashed for the output key before it is
+     * decoded, so it is read only once.
+     *
+     * @param uri ~ Image to read
+     * @return Encoded content of the image
+     * @throws IOException If the image can't be read
+     */
+    byte[] read(String uri) throws IOException;
+
+    /**
+     * Decode content returned by {@link #read(String)}
+     *
+     * @param content ~ Encoded content
+     * @return Decoded pixels
+     * @throws IOException If the content can't be decoded
+     */
+    Pixels decode(byte[] content) throws IOException;
+}
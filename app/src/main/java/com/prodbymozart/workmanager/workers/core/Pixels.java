@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A decoded image as packed ARGB pixels, row major.
+ *
+ * Subclasses can keep the pixels in another form, e.g. a platform bitmap an engine can work on
+ * directly, and only unpack them when {@link #getArgb()} is called.
+ */
+public class Pixels {
+
+    private final int[] mArgb;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSampleSize;
+
+    /**
+     * Constructor.
+     *
+     * @param argb ~ ARGB pixels, row major. Not copied.
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     */
+    public Pixels(int[] argb, int width, int height) {
+        this(argb, width, height, 1);
+    }
+
+    /**
+     * Constructor for images that were decoded at a reduced size.
+     *
+     * @param argb ~ ARGB pixels, row major. Not copied.
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param sampleSize ~ How many times smaller than the source the image was decoded
+     */
+    public Pixels(int[] argb, int width, int height, int sampleSize) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Invalid sample size " + sampleSize);
+        }
+        mArgb = argb;
+        mWidth = width;
+        mHeight = height;
+        mSampleSize = sampleSize;
+    }
+
+    /**
+     * Constructor for subclasses that unpack the pixels themselves.
+     *
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param sampleSize ~ How many times smaller than the source the image was decoded
+     */
+    protected Pixels(int width, int height, int sampleSize) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Invalid sample size " + sampleSize);
+        }
+        mArgb = null;
+        mWidth = width;
+        mHeight = height;
+        mSampleSize = sampleSize;
+    }
+
+    /**
+     * @return The pixels. Engines modify them in place.
+     */
+    public int[] getArgb() {
+        return mArgb;
+    }
+
+    /**
+     * Copy the pixels into a buffer outside of the Java heap, e.g. to blur a large image without
+     * the heap having to hold it. Subclasses that keep their pixels outside of the heap copy them
+     * without unpacking, and may release their own copy until {@link #copyFromBuffer(PixelBuffer)}
+     * so the image is only held once. The pixels must not be used in between.
+     *
+     * @param spillDirectory ~ See {@link PixelBuffer#allocate(int, int, File)}
+     * @return The buffer, which the caller has to close
+     * @throws IOException If the buffer can't be allocated
+     */
+    public PixelBuffer copyToBuffer(File spillDirectory) throws IOException {
+        final PixelBuffer buffer = PixelBuffer.allocate(mWidth, mHeight, spillDirectory);
+        buffer.getPixels().put(getArgb(), 0, mWidth * mHeight);
+        return buffer;
+    }
+
+    /**
+     * Replace the pixels with those of a buffer from {@link #copyToBuffer(File)}
+     *
+     * @param buffer ~ Pixels to copy, of the same size
+     */
+    public void copyFromBuffer(PixelBuffer buffer) {
+        buffer.getPixels().get(getArgb(), 0, mWidth * mHeight);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 1 for a full size decode, more if the image had to be decoded smaller, e.g. for
+     * lack of memory
+     */
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PixelSource} that reads the next images of a multi-image job ahead, on its own thread,
+ * while the current one is being processed.
+ *
+ * At most {@code depth} images are read ahead, and reading ahead pauses while the images that
+ * were read but not taken yet add up to more than {@code byteBudget}. Images that were not
+ * queued are read on the calling thread as usual.
+ *
+ * The time callers spend waiting for content is kept in the {@code source.io_wait} timer and the
+ * time they spend between reads, processing the previous image, in the {@code source.compute}
+ * timer. Whether the content was already there is counted in {@code source.prefetch_hit} and
+ * {@code source.prefetch_miss}.
+ */
+public final class Prefetcher implements PixelSource, Closeable {
+
+    public static final String METRIC_IO_WAIT = "source.io_wait";
+    public static final String METRIC_COMPUTE = "source.compute";
+    public static final String METRIC_HIT = "source.prefetch_hit";
+    public static final String METRIC_MISS = "source.prefetch_miss";
+
+    private final PixelSource mSource;
+    private final int mDepth;
+    private final long mByteBudget;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "prefetcher"));
+
+    // Guarded by this
+    private final LinkedHashSet<String> mPending = new LinkedHashSet<>();
+    private final LinkedHashMap<String, Future<byte[]>> mStarted = new LinkedHashMap<>();
+    private long mHeldBytes;
+    private long mIoWaitNanos;
+    private long mComputeNanos;
+    private long mLastReadNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param source ~ Source the images are read from
+     * @param depth ~ Number of images read ahead at most
+     * @param byteBudget ~ Bytes of read but not yet taken images above which reading ahead pauses
+     */
+    public Prefetcher(PixelSource source, int depth, long byteBudget) {
+        if (depth < 1 || byteBudget < 0) {
+            throw new IllegalArgumentException("Invalid prefetch configuration");
+        }
+        mSource = source;
+        mDepth = depth;
+        mByteBudget = byteBudget;
+    }
+
+    /**
+     * Queue images to be read ahead, in the order they will be taken. Images that are already
+     * queued or being read are only read once; taking them a second time reads them again on the
+     * calling thread.
+     *
+     * @param uris ~ Images to read ahead
+     */
+    public synchronized void enqueue(Collection<String> uris) {
+        for (String uri : uris) {
+            if (!mStarted.containsKey(uri)) mPending.add(uri);
+        }
+        startFetches();
+    }
+
+    @Override
+    public byte[] read(String uri) throws IOException {
+        final Future<byte[]> fetch;
+        synchronized (this) {
+            fetch = mStarted.remove(uri);
+            if (fetch == null) mPending.remove(uri);
+        }
+
+        final long start = System.nanoTime();
+        synchronized (this) {
+            if (mLastReadNanos != 0) {
+                final long computed = start - mLastReadNanos;
+                mComputeNanos += computed;
+                Metrics.recordTime(METRIC_COMPUTE, TimeUnit.NANOSECONDS.toMillis(computed));
+            }
+        }
+
+        final byte[] content;
+        if (fetch == null) {
+            Metrics.increment(METRIC_MISS);
+            content = mSource.read(uri);
+        } else {
+            Metrics.increment(fetch.isDone() ? METRIC_HIT : METRIC_MISS);
+            content = await(fetch);
+        }
+        final long waited = System.nanoTime() - start;
+        Metrics.recordTime(METRIC_IO_WAIT, TimeUnit.NANOSECONDS.toMillis(waited));
+
+        synchronized (this) {
+            mIoWaitNanos += waited;
+            mLastReadNanos = System.nanoTime();
+            if (fetch != null) mHeldBytes -= content.length;
+            startFetches();
+        }
+        return content;
+    }
+
+    @Override
+    public Pixels decode(byte[] content) throws IOException {
+        return mSource.decode(content);
+    }
+
+    /**
+     * @return Total nanoseconds callers of {@link #read(String)} spent waiting for content
+     */
+    public synchronized long getIoWaitNanos() {
+        return mIoWaitNanos;
+    }
+
+    /**
+     * @return Total nanoseconds callers spent between reads, processing what they read
+     */
+    public synchronized long getComputeNanos() {
+        return mComputeNanos;
+    }
+
+    /**
+     * Stop reading ahead and drop everything that was read but not taken
+     */
+    @Override
+    public synchronized void close() {
+        for (Future<byte[]> fetch : mStarted.values()) {
+            fetch.cancel(true);
+        }
+        mStarted.clear();
+        mPending.clear();
+        mExecutor.shutdownNow();
+    }
+
+    // Must hold the lock
+    private void startFetches() {
+        while (!mPending.isEmpty() && mStarted.size() < mDepth && mHeldBytes <= mByteBudget) {
+            final Iterator<String> next = mPending.iterator();
+            final String uri = next.next();
+            next.remove();
+            mStarted.put(uri, mExecutor.submit(() -> {
+                final byte[] content = mSource.read(uri);
+                synchronized (Prefetcher.this) {
+                    mHeldBytes += content.length;
+                }
+                return content;
+            }));
+        }
+    }
+
+    private static byte[] await(Future<byte[]> fetch) throws IOException {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for content");
+        }
+    }
+}
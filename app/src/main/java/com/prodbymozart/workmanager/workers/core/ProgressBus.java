@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process channel workers publish {@link JobProgress} on and screens listen to.
+ *
+ * Listeners subscribe to a single job, so publishing only reaches the listeners of that job no
+ * matter how many other jobs there are or were. The latest progress of every unfinished job is
+ * kept, so a listener that subscribes late starts from the current state. Finished jobs are
+ * dropped as soon as their final progress has been delivered.
+ *
+ * Workers of a chain that is replaced or cancelled never get to publish that they are done. Jobs
+ * started through {@link #replace(String, JobProgress)} are therefore finished by the bus itself
+ * once another job takes over their unique work name.
+ */
+public final class ProgressBus {
+
+    /**
+     * Receives progress for one job
+     */
+    public interface Listener {
+        void onProgress(JobProgress progress);
+    }
+
+    private static final ProgressBus sDefault = new ProgressBus();
+
+    // Guarded by this
+    private final Map<String, JobProgress> mLatest = new HashMap<>();
+    private final Map<String, CopyOnWriteArrayList<Listener>> mListeners = new HashMap<>();
+    private final Map<String, String> mJobsByName = new HashMap<>();
+
+    /**
+     * @return The bus shared by the whole process
+     */
+    public static ProgressBus getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Publish progress for a job. Progress for a job nobody listens to is still kept until the
+     * job finishes.
+     *
+     * @param progress ~ New progress of the job
+     */
+    public void publish(JobProgress progress) {
+        final CopyOnWriteArrayList<Listener> listeners;
+        synchronized (this) {
+            if (progress.getState().isFinished()) {
+                mLatest.remove(progress.getJobId());
+                mJobsByName.values().remove(progress.getJobId());
+            } else {
+                mLatest.put(progress.getJobId(), progress);
+            }
+            listeners = mListeners.get(progress.getJobId());
+        }
+
+        // Deliver outside the lock, listeners may publish or unsubscribe themselves
+        if (listeners == null) return;
+        for (Listener listener : listeners) {
+            listener.onProgress(progress);
+        }
+    }
+
+    /**
+     * Publish the first progress of a job that replaces whatever job ran under the same unique
+     * work name, like {@code ExistingWorkPolicy.REPLACE} does. The replaced job is published as
+     * cancelled, so its progress isn't kept any longer.
+     *
+     * @param uniqueName ~ Unique work name the job is enqueued under
+     * @param progress ~ First progress of the new job
+     */
+    public void replace(String uniqueName, JobProgress progress) {
+        final String replaced;
+        synchronized (this) {
+            replaced = mJobsByName.put(uniqueName, progress.getJobId());
+        }
+        if (replaced != null && !replaced.equals(progress.getJobId())) {
+            publish(new JobProgress(replaced, JobProgress.State.CANCELLED, 0, 0, null));
+        }
+        publish(progress);
+    }
+
+    /**
+     * Listen to the progress of a job. The listener is called right away with the latest
+     * progress if the job is running.
+     *
+     * @param jobId ~ Job to listen to
+     * @param listener ~ Listener to call, on the publishing thread
+     */
+    public void subscribe(String jobId, Listener listener) {
+        final JobProgress latest;
+        synchronized (this) {
+            CopyOnWriteArrayList<Listener> listeners = mListeners.get(jobId);
+            if (listeners == null) {
+                listeners = new CopyOnWriteArrayList<>();
+                mListeners.put(jobId, listeners);
+            }
+            listeners.add(listener);
+            latest = mLatest.get(jobId);
+        }
+
+        if (latest != null) listener.onProgress(latest);
+    }
+
+    /**
+     * Stop listening to the progress of a job
+     *
+     * @param jobId ~ Job the listener was subscribed to
+     * @param listener ~ Listener to remove
+     */
+    public synchronized void unsubscribe(String jobId, Listener listener) {
+        final CopyOnWriteArrayList<Listener> listeners = mListeners.get(jobId);
+        if (listeners == null) return;
+        listeners.remove(listener);
+        if (listeners.isEmpty()) mListeners.remove(jobId);
+    }
+
+    /**
+     * @return Number of jobs whose progress is being kept
+     */
+    public synchronized int activeJobs() {
+        return mLatest.size();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+/**
+ * Receives progress from pipelines.
+ */
+public interface ProgressReporter {
+
+    /**
+     * Reporter that ignores all progress
+     */
+    ProgressReporter NONE = (stage, step, steps) -> {
+    };
+
+    /**
+     * Called when a pipeline reaches a new step
+     *
+     * @param stage ~ Name of the step
+     * @param step ~ Number of steps done so far
+     * @param steps ~ Total number of steps
+     */
+    void onProgress(String stage, int step, int steps);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.IOException;
+
+/**
+ * What a {@code SaveWorker} does, without any Android dependencies: copy an image into the sink
+ * the user gets to see, e.g. the gallery.
+ */
+public final class SavePipeline {
+
+    public static final String STAGE_READ = "read";
+    public static final String STAGE_SAVE = "save";
+    public static final String STAGE_DONE = "done";
+
+    private static final int STEPS = 2;
+
+    private final PixelSource mSource;
+    private final PixelSink mSink;
+    private final ProgressReporter mReporter;
+
+    /**
+     * Constructor.
+     *
+     * @param source ~ Where the image is read from
+     * @param sink ~ Where the image is saved to
+     * @param reporter ~ Receives progress
+     */
+    public SavePipeline(PixelSource source, PixelSink sink, ProgressReporter reporter) {
+        mSource = source;
+        mSink = sink;
+        mReporter = reporter;
+    }
+
+    /**
+     * Save one image
+     *
+     * @param inputUri ~ Image to save
+     * @return Uri of the saved image
+     * @throws IOException If the image can't be read or saved, or could only be decoded smaller
+     * than it is
+     */
+    public String run(String inputUri) throws IOException {
+        mReporter.onProgress(STAGE_READ, 0, STEPS);
+        final byte[] content = mSource.read(inputUri);
+
+        // Hashing the whole image is only worth it if the sink does something with the key
+        final String key = mSink.usesKeys() ? ContentHash.of(content) : null;
+
+        // The saved image is what the user keeps, so it is never quietly smaller than the input
+        final Pixels pixels = mSource.decode(content);
+        if (pixels.getSampleSize() != 1) {
+            throw new IOException("Only a decode at 1/" + pixels.getSampleSize()
+                    + " of the size fit in memory");
+        }
+
+        mReporter.onProgress(STAGE_SAVE, 1, STEPS);
+        final String outputUri = mSink.write(key, pixels);
+
+        mReporter.onProgress(STAGE_DONE, STEPS, STEPS);
+        return outputUri;
+    }
+}
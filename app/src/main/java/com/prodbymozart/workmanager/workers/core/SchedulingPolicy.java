@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+/**
+ * Decides which constraints a blur job runs under, from an estimate of what the job costs.
+ *
+ * The cost of a job is the number of pixels it touches: the decoded pixels of its images times
+ * the number of blur passes. Cheap jobs run right away, moderate ones wait for a healthy battery
+ * and expensive ones wait for a charger and an idle device. Storage is only required to be
+ * plentiful when the job is going to write a lot of bytes.
+ *
+ * Jobs that run right away or on battery run in the interactive lane of the
+ * {@link LaneScheduler}. Jobs that wait for a charger were deferred on purpose, so they run in the
+ * background lane and give way to interactive work.
+ */
+public final class SchedulingPolicy {
+
+    /**
+     * About 12 MP blurred four times. Covers thumbnails at any blur level.
+     */
+    public static final long DEFAULT_CHEAP_PIXELS = 50_000_000L;
+
+    /**
+     * About 12 MP blurred forty times
+     */
+    public static final long DEFAULT_EXPENSIVE_PIXELS = 500_000_000L;
+
+    /**
+     * Output size above which the job asks for storage not to be low
+     */
+    public static final long DEFAULT_STORAGE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Upper bound of the JPEG bytes written per pixel at quality 100
+     */
+    static final int OUTPUT_BYTES_PER_PIXEL = 2;
+
+    public static final SchedulingPolicy DEFAULT = new SchedulingPolicy(
+            DEFAULT_CHEAP_PIXELS, DEFAULT_EXPENSIVE_PIXELS, DEFAULT_STORAGE_BYTES);
+
+    private final long mCheapPixels;
+    private final long mExpensivePixels;
+    private final long mStorageBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param cheapPixels ~ Jobs touching at most this many pixels run without constraints
+     * @param expensivePixels ~ Jobs touching more than this many pixels wait for charging and idle
+     * @param storageBytes ~ Jobs writing more than this many bytes require storage not to be low
+     */
+    public SchedulingPolicy(long cheapPixels, long expensivePixels, long storageBytes) {
+        if (cheapPixels < 0 || expensivePixels < cheapPixels || storageBytes < 0) {
+            throw new IllegalArgumentException("Invalid thresholds");
+        }
+        mCheapPixels = cheapPixels;
+        mExpensivePixels = expensivePixels;
+        mStorageBytes = storageBytes;
+    }
+
+    /**
+     * Decide the constraints for a job
+     *
+     * @param width ~ Decoded width of the image, or 0 if unknown
+     * @param height ~ Decoded height of the image, or 0 if unknown
+     * @param passes ~ Number of blur passes over the image
+     * @return The decision
+     */
+    public Decision decide(int width, int height, int passes) {
+        return decide(width > 0 && height > 0 ? (long) width * height : 0, passes);
+    }
+
+    /**
+     * Decide the constraints for a job over several images
+     *
+     * @param pixels ~ Decoded pixels of all of the images together, or 0 if any size is unknown
+     * @param passes ~ Number of blur passes over every image
+     * @return The decision
+     */
+    public Decision decide(long pixels, int passes) {
+        // Without dimensions there is nothing to estimate from, so fall back to the constraints
+        // the chain always had: charging and enough storage
+        if (pixels <= 0) {
+            return new Decision(Cost.UNKNOWN, 0, 0, true, false, false, true);
+        }
+
+        final long cost = pixels * Math.max(passes, 1);
+
+        // Every pass writes an intermediate output and the save writes one more copy
+        final long outputBytes = pixels * OUTPUT_BYTES_PER_PIXEL * (Math.max(passes, 1) + 1);
+        final boolean storage = outputBytes > mStorageBytes;
+
+        if (cost <= mCheapPixels) {
+            return new Decision(Cost.CHEAP, cost, outputBytes, false, false, false, storage);
+        } else if (cost <= mExpensivePixels) {
+            return new Decision(Cost.MODERATE, cost, outputBytes, false, false, true, storage);
+        } else {
+            return new Decision(Cost.EXPENSIVE, cost, outputBytes, true, true, false, storage);
+        }
+    }
+
+    /**
+     * Cost classes a job can fall into
+     */
+    public enum Cost {
+        CHEAP, MODERATE, EXPENSIVE, UNKNOWN
+    }
+
+    /**
+     * The constraints a job should run under, together with the estimate they came from
+     */
+    public static final class Decision {
+        private final Cost mCost;
+        private final long mEstimatedPixels;
+        private final long mEstimatedOutputBytes;
+        private final boolean mRequiresCharging;
+        private final boolean mRequiresDeviceIdle;
+        private final boolean mRequiresBatteryNotLow;
+        private final boolean mRequiresStorageNotLow;
+
+        Decision(Cost cost, long estimatedPixels, long estimatedOutputBytes,
+                boolean requiresCharging, boolean requiresDeviceIdle,
+                boolean requiresBatteryNotLow, boolean requiresStorageNotLow) {
+            mCost = cost;
+            mEstimatedPixels = estimatedPixels;
+            mEstimatedOutputBytes = estimatedOutputBytes;
+            mRequiresCharging = requiresCharging;
+            mRequiresDeviceIdle = requiresDeviceIdle;
+            mRequiresBatteryNotLow = requiresBatteryNotLow;
+            mRequiresStorageNotLow = requiresStorageNotLow;
+        }
+
+        public Cost getCost() {
+            return mCost;
+        }
+
+        public long getEstimatedPixels() {
+            return mEstimatedPixels;
+        }
+
+        public long getEstimatedOutputBytes() {
+            return mEstimatedOutputBytes;
+        }
+
+        public boolean requiresCharging() {
+            return mRequiresCharging;
+        }
+
+        public boolean requiresDeviceIdle() {
+            return mRequiresDeviceIdle;
+        }
+
+        public boolean requiresBatteryNotLow() {
+            return mRequiresBatteryNotLow;
+        }
+
+        public boolean requiresStorageNotLow() {
+            return mRequiresStorageNotLow;
+        }
+
+        /**
+         * @return Lane the job runs in, background for jobs that were deferred to a charger
+         */
+        public LaneScheduler.Lane getLane() {
+            return mRequiresCharging ? LaneScheduler.Lane.BACKGROUND
+                    : LaneScheduler.Lane.INTERACTIVE;
+        }
+
+        @Override
+        public String toString() {
+            return mCost + " (" + mEstimatedPixels + " px, " + mEstimatedOutputBytes + " bytes, "
+                    + getLane() + ")";
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+/**
+ * Box blur backed by the planar {@link CpuBlur} engine. The planes are kept between tiles, so a
+ * filter belongs to one thread at a time.
+ */
+public final class BlurFilter implements NeighbourhoodFilter {
+
+    private final int mRadius;
+    private final CpuBlur.Planes mPlanes = new CpuBlur.Planes();
+
+    /**
+     * Constructor.
+     *
+     * @param radius ~ Blur radius, between 1 and {@link CpuBlur#MAX_RADIUS}
+     */
+    public BlurFilter(int radius) {
+        if (radius < 1 || radius > CpuBlur.MAX_RADIUS) {
+            throw new IllegalArgumentException("Invalid blur radius " + radius);
+        }
+        mRadius = radius;
+    }
+
+    @Override
+    public int halo() {
+        return mRadius;
+    }
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        CpuBlur.blurPlanar(pixels, width, height, mRadius, mPlanes);
+    }
+
+    @Override
+    public String toString() {
+        return FilterGraph.FILTER_BLUR + ":" + mRadius;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An ordered chain of filters that runs over a single image in as few passes as possible.
+ *
+ * The chain is described declaratively, e.g. {@code "blur:3,grayscale,vignette:0.6"}: a comma
+ * separated list of filter names, each with an optional numeric parameter after a colon.
+ *
+ * The chain is split into passes. A pass is a (possibly empty) run of neighbourhood filters
+ * followed by a (possibly empty) run of point filters:
+ *
+ * - Neighbourhood filters in a pass are run tile by tile. Each tile is copied once with a halo
+ * wide enough for every filter in the run.
+ * - Point filters in a pass are fused into one loop. When the pass also has neighbourhood filters
+ * the point filters are applied while the tile is written back, so they cost no extra pass.
+ *
+ * Filters keep scratch memory between tiles, so a graph runs on one thread at a time. Parse a
+ * graph per worker instead of sharing one.
+ */
+public final class FilterGraph {
+
+    public static final String FILTER_BLUR = "blur";
+    public static final String FILTER_SHARPEN = "sharpen";
+    public static final String FILTER_GRAYSCALE = "grayscale";
+    public static final String FILTER_SEPIA = "sepia";
+    public static final String FILTER_VIGNETTE = "vignette";
+
+    /**
+     * Size of the output area of a tile. Keeps a tile and its halo small enough to stay in cache.
+     */
+    static final int TILE_SIZE = 256;
+
+    private final List<Pass> mPasses;
+
+    private FilterGraph(List<Pass> passes) {
+        mPasses = passes;
+    }
+
+    /**
+     * Parse a filter chain description.
+     *
+     * @param spec ~ Comma separated list of {@code name[:parameter]} entries
+     * @return The filter graph
+     * @throws IllegalArgumentException If a filter is unknown or has an invalid parameter
+     */
+    public static FilterGraph parse(String spec) {
+        final List<Pass> passes = new ArrayList<>();
+        Pass current = new Pass();
+
+        if (spec != null) {
+            for (String entry : spec.split(",")) {
+                final String trimmed = entry.trim();
+                if (trimmed.isEmpty()) continue;
+
+                final Object filter = createFilter(trimmed);
+                if (filter instanceof NeighbourhoodFilter) {
+                    // A neighbourhood filter after point filters has to start a new pass
+                    if (!current.mPointFilters.isEmpty()) {
+                        passes.add(current);
+                        current = new Pass();
+                    }
+                    current.mNeighbourhoodFilters.add((NeighbourhoodFilter) filter);
+                } else {
+                    current.mPointFilters.add((PointFilter) filter);
+                }
+            }
+        }
+
+        if (!current.isEmpty()) passes.add(current);
+        return new FilterGraph(Collections.unmodifiableList(passes));
+    }
+
+    /**
+     * @return The chain in its normal form, e.g. {@code "blur:3,grayscale"}: lower case names,
+     * the parameter of every filter that takes one, defaults included, and no blanks. Chains
+     * that parse to the same filters have the same normal form, so it is what outputs are keyed
+     * by.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder spec = new StringBuilder();
+        for (Pass pass : mPasses) {
+            for (NeighbourhoodFilter filter : pass.mNeighbourhoodFilters) {
+                if (spec.length() > 0) spec.append(',');
+                spec.append(filter);
+            }
+            for (PointFilter filter : pass.mPointFilters) {
+                if (spec.length() > 0) spec.append(',');
+                spec.append(filter);
+            }
+        }
+        return spec.toString();
+    }
+
+    /**
+     * @return True if the chain contains no filters
+     */
+    public boolean isEmpty() {
+        return mPasses.isEmpty();
+    }
+
+    /**
+     * @return Number of passes over the pixels this graph takes
+     */
+    public int passCount() {
+        return mPasses.size();
+    }
+
+    /**
+     * Run the whole chain over the image in place.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     */
+    public void run(int[] pixels, int width, int height) {
+        run(pixels, width, height, () -> {
+        });
+    }
+
+    /**
+     * Run the whole chain over the image in place, calling back between tiles so long running
+     * work can be preempted.
+     *
+     * @param pixels ~ ARGB pixels, row major
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param checkpoint ~ Called between tiles and passes
+     */
+    public void run(int[] pixels, int width, int height, Runnable checkpoint) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+
+        int[] source = pixels;
+        int[] target = null;
+        for (Pass pass : mPasses) {
+            checkpoint.run();
+            if (pass.mNeighbourhoodFilters.isEmpty()) {
+                runPointFilters(pass.mPointFilters, source, width, height);
+                continue;
+            }
+
+            // Tiles read their halo from the untouched source, so write into a second buffer
+            if (target == null) target = new int[width * height];
+            runTiled(pass, source, target, width, height, checkpoint);
+            final int[] swap = source;
+            source = target;
+            target = swap;
+        }
+
+        if (source != pixels) System.arraycopy(source, 0, pixels, 0, width * height);
+    }
+
+    private static void runPointFilters(List<PointFilter> filters, int[] pixels, int width,
+            int height) {
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                pixels[i] = applyPointFilters(filters, pixels[i], x, y, width, height);
+            }
+        }
+    }
+
+    private static void runTiled(Pass pass, int[] source, int[] target, int width, int height,
+            Runnable checkpoint) {
+        final int halo = pass.halo();
+        final int maxTile = TILE_SIZE + 2 * halo;
+        final int[] tile = new int[maxTile * maxTile];
+
+        for (int top = 0; top < height; top += TILE_SIZE) {
+            for (int left = 0; left < width; left += TILE_SIZE) {
+                checkpoint.run();
+                final int right = Math.min(left + TILE_SIZE, width);
+                final int bottom = Math.min(top + TILE_SIZE, height);
+
+                // Area that is read, clamped to the image. Clamping at the image border matches
+                // the edge handling of the filters themselves.
+                final int readLeft = Math.max(left - halo, 0);
+                final int readTop = Math.max(top - halo, 0);
+                final int readWidth = Math.min(right + halo, width) - readLeft;
+                final int readHeight = Math.min(bottom + halo, height) - readTop;
+
+                // Edge tiles use the start of the scratch buffer, every tile shares it
+                for (int row = 0; row < readHeight; row++) {
+                    System.arraycopy(source, (readTop + row) * width + readLeft, tile,
+                            row * readWidth, readWidth);
+                }
+
+                for (NeighbourhoodFilter filter : pass.mNeighbourhoodFilters) {
+                    filter.apply(tile, readWidth, readHeight);
+                }
+
+                // Write back the output area, applying the fused point filters on the way
+                for (int y = top; y < bottom; y++) {
+                    int in = (y - readTop) * readWidth + (left - readLeft);
+                    int out = y * width + left;
+                    for (int x = left; x < right; x++, in++, out++) {
+                        target[out] = applyPointFilters(pass.mPointFilters, tile[in], x, y,
+                                width, height);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int applyPointFilters(List<PointFilter> filters, int argb, int x, int y,
+            int width, int height) {
+        for (int f = 0, size = filters.size(); f < size; f++) {
+            argb = filters.get(f).apply(argb, x, y, width, height);
+        }
+        return argb;
+    }
+
+    private static Object createFilter(String entry) {
+        final int separator = entry.indexOf(':');
+        final String name = (separator < 0 ? entry : entry.substring(0, separator))
+                .trim().toLowerCase(Locale.US);
+        final String parameter = separator < 0 ? null : entry.substring(separator + 1).trim();
+
+        try {
+            switch (name) {
+                case FILTER_BLUR:
+                    return new BlurFilter(parameter == null
+                            ? CpuBlur.DEFAULT_RADIUS
+                            : Integer.parseInt(parameter));
+                case FILTER_SHARPEN:
+                    return new SharpenFilter(parameter == null
+                            ? SharpenFilter.DEFAULT_AMOUNT : Float.parseFloat(parameter));
+                case FILTER_GRAYSCALE:
+                    return new GrayscaleFilter();
+                case FILTER_SEPIA:
+                    return new SepiaFilter();
+                case FILTER_VIGNETTE:
+                    return new VignetteFilter(parameter == null
+                            ? VignetteFilter.DEFAULT_STRENGTH : Float.parseFloat(parameter));
+                default:
+                    throw new IllegalArgumentException("Unknown filter " + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameter for filter " + name, e);
+        }
+    }
+
+    /**
+     * A run of neighbourhood filters followed by a run of point filters
+     */
+    private static final class Pass {
+        final List<NeighbourhoodFilter> mNeighbourhoodFilters = new ArrayList<>();
+        final List<PointFilter> mPointFilters = new ArrayList<>();
+
+        int halo() {
+            int halo = 0;
+            for (NeighbourhoodFilter filter : mNeighbourhoodFilters) {
+                halo += filter.halo();
+            }
+            return halo;
+        }
+
+        boolean isEmpty() {
+            return mNeighbourhoodFilters.isEmpty() && mPointFilters.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * Converts pixels to their luma, keeping alpha.
+ */
+public final class GrayscaleFilter implements PointFilter {
+
+    @Override
+    public int apply(int argb, int x, int y, int width, int height) {
+        final int luma = (77 * ((argb >> 16) & 0xFF) + 150 * ((argb >> 8) & 0xFF)
+                + 29 * (argb & 0xFF)) >> 8;
+        return (argb & 0xFF000000) | luma << 16 | luma << 8 | luma;
+    }
+
+    @Override
+    public String toString() {
+        return FilterGraph.FILTER_GRAYSCALE;
+    }
+}
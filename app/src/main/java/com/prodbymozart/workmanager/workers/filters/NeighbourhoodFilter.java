@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * A filter where every output pixel depends on the input pixels within {@link #halo()} pixels.
+ *
+ * {@link FilterGraph} runs consecutive neighbourhood filters tile by tile. Each tile is read with
+ * the sum of the halos of all filters in the run, so the filters share a single halo copy.
+ */
+public interface NeighbourhoodFilter {
+
+    /**
+     * @return Number of pixels around an output pixel that the filter reads
+     */
+    int halo();
+
+    /**
+     * Apply the filter in place. Pixels outside the buffer are treated as copies of the nearest
+     * edge pixel.
+     *
+     * @param pixels ~ ARGB pixels, row major. Only the first {@code width * height} belong to
+     * the buffer, the array may be longer so it can be reused between tiles.
+     * @param width ~ Width of the buffer
+     * @param height ~ Height of the buffer
+     */
+    void apply(int[] pixels, int width, int height);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * A filter where every output pixel only depends on the input pixel at the same position.
+ *
+ * Consecutive point filters are fused by {@link FilterGraph} into a single pass over the pixels.
+ */
+public interface PointFilter {
+
+    /**
+     * Apply the filter to one pixel
+     *
+     * @param argb ~ Input pixel
+     * @param x ~ Column of the pixel in the full image
+     * @param y ~ Row of the pixel in the full image
+     * @param width ~ Width of the full image
+     * @param height ~ Height of the full image
+     * @return Output pixel
+     */
+    int apply(int argb, int x, int y, int width, int height);
+}
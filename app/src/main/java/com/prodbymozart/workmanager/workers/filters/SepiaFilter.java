@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * Applies the usual sepia tone matrix, keeping alpha.
+ */
+public final class SepiaFilter implements PointFilter {
+
+    @Override
+    public int apply(int argb, int x, int y, int width, int height) {
+        final int r = (argb >> 16) & 0xFF;
+        final int g = (argb >> 8) & 0xFF;
+        final int b = argb & 0xFF;
+
+        // Matrix coefficients scaled by 1024
+        final int sr = Math.min(255, (402 * r + 788 * g + 194 * b) >> 10);
+        final int sg = Math.min(255, (357 * r + 702 * g + 172 * b) >> 10);
+        final int sb = Math.min(255, (279 * r + 547 * g + 134 * b) >> 10);
+        return (argb & 0xFF000000) | sr << 16 | sg << 8 | sb;
+    }
+
+    @Override
+    public String toString() {
+        return FilterGraph.FILTER_SEPIA;
+    }
+}
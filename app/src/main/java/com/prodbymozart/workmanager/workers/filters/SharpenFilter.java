@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * Unsharp mask: adds the difference between the image and a radius 1 blur of it back onto the
+ * image. The blur is kept between tiles, so a filter belongs to one thread at a time.
+ */
+public final class SharpenFilter implements NeighbourhoodFilter {
+
+    /**
+     * Default amount of the difference that is added back
+     */
+    public static final float DEFAULT_AMOUNT = 1f;
+
+    private final int mAmount;
+    private final BlurFilter mBlur = new BlurFilter(1);
+    private int[] mBlurred = new int[0];
+
+    /**
+     * Constructor.
+     *
+     * @param amount ~ Amount of the difference that is added back, between 0 and 4
+     */
+    public SharpenFilter(float amount) {
+        if (amount < 0f || amount > 4f) {
+            throw new IllegalArgumentException("Invalid sharpen amount " + amount);
+        }
+        mAmount = (int) (amount * 256f);
+    }
+
+    @Override
+    public int halo() {
+        return 1;
+    }
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        final int size = width * height;
+        if (mBlurred.length < size) mBlurred = new int[size];
+        final int[] blurred = mBlurred;
+        System.arraycopy(pixels, 0, blurred, 0, size);
+        mBlur.apply(blurred, width, height);
+
+        for (int i = 0; i < size; i++) {
+            final int p = pixels[i];
+            final int q = blurred[i];
+            pixels[i] = (p & 0xFF000000)
+                    | sharpen((p >> 16) & 0xFF, (q >> 16) & 0xFF) << 16
+                    | sharpen((p >> 8) & 0xFF, (q >> 8) & 0xFF) << 8
+                    | sharpen(p & 0xFF, q & 0xFF);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return FilterGraph.FILTER_SHARPEN + ":" + mAmount / 256f;
+    }
+
+    private int sharpen(int value, int blurred) {
+        final int result = value + (((value - blurred) * mAmount) >> 8);
+        return Math.max(0, Math.min(255, result));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+/**
+ * Darkens pixels towards the corners of the image.
+ */
+public final class VignetteFilter implements PointFilter {
+
+    /**
+     * Default amount the corners are darkened by
+     */
+    public static final float DEFAULT_STRENGTH = 0.5f;
+
+    private final float mStrength;
+
+    /**
+     * Constructor.
+     *
+     * @param strength ~ Amount the corners are darkened by, between 0 and 1
+     */
+    public VignetteFilter(float strength) {
+        if (strength < 0f || strength > 1f) {
+            throw new IllegalArgumentException("Invalid vignette strength " + strength);
+        }
+        mStrength = strength;
+    }
+
+    @Override
+    public int apply(int argb, int x, int y, int width, int height) {
+        // Squared distance from the centre, normalised so the corners are at 1
+        final float dx = (2f * x - (width - 1)) / Math.max(width - 1, 1);
+        final float dy = (2f * y - (height - 1)) / Math.max(height - 1, 1);
+        final int scale = (int) ((1f - mStrength * (dx * dx + dy * dy) * 0.5f) * 256f);
+
+        final int r = (((argb >> 16) & 0xFF) * scale) >> 8;
+        final int g = (((argb >> 8) & 0xFF) * scale) >> 8;
+        final int b = ((argb & 0xFF) * scale) >> 8;
+        return (argb & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+
+    @Override
+    public String toString() {
+        return FilterGraph.FILTER_VIGNETTE + ":" + mStrength;
+    }
+}
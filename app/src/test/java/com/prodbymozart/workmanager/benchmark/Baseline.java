@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark results kept as a flat JSON object of {@code "<case>.<metric>": value} entries, and
+ * the check of new results against them.
+ *
+ * Only flat objects of numbers are written and read, which keeps this free of a JSON library on
+ * both the JVM and Android.
+ */
+public final class Baseline {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern ENTRY =
+            Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9][0-9.eE+-]*)");
+
+    /**
+     * Read a baseline
+     *
+     * @param file ~ File written by {@link #write(File, Map)}
+     * @return Values by name, sorted by name
+     * @throws IOException If the file can't be read
+     */
+    public static Map<String, Double> read(File file) throws IOException {
+        final byte[] content = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < content.length
+                    && (read = in.read(content, offset, content.length - offset)) != -1) {
+                offset += read;
+            }
+        }
+
+        final Map<String, Double> values = new TreeMap<>();
+        final Matcher matcher = ENTRY.matcher(new String(content, UTF_8));
+        while (matcher.find()) {
+            values.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return values;
+    }
+
+    /**
+     * Write a baseline, one entry per line so changes diff well
+     *
+     * @param file ~ File to write
+     * @param values ~ Values by name
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File file, Map<String, Double> values) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+            out.write("{\n");
+            int remaining = values.size();
+            for (Map.Entry<String, Double> entry : new TreeMap<>(values).entrySet()) {
+                out.write("  \"" + entry.getKey() + "\": " + format(entry.getValue()));
+                out.write(--remaining > 0 ? ",\n" : "\n");
+            }
+            out.write("}\n");
+        }
+    }
+
+    /**
+     * Find the values that got worse. Every metric is one where lower is better. Values that are
+     * missing from either side are skipped, so adding a case doesn't fail the check.
+     *
+     * @param baseline ~ Recorded values
+     * @param current ~ New values
+     * @param threshold ~ Allowed increase, e.g. 0.1 for 10%
+     * @return One line per regression, empty if there are none
+     */
+    public static List<String> regressions(Map<String, Double> baseline,
+            Map<String, Double> current, double threshold) {
+        final List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : new TreeMap<>(current).entrySet()) {
+            final Double recorded = baseline.get(entry.getKey());
+            if (recorded == null) continue;
+
+            final double limit = recorded * (1 + threshold);
+            if (entry.getValue() > limit) {
+                regressions.add(String.format("%s: %s > %s (baseline %s)", entry.getKey(),
+                        format(entry.getValue()), format(limit), format(recorded)));
+            }
+        }
+        return regressions;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value)
+                : String.format(Locale.US, "%.3f", value);
+    }
+
+    // Disallow instantiation
+    private Baseline() {
+    }
+}
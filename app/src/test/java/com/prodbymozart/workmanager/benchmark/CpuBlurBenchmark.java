@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.benchmark;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.util.Arrays;
+
+/**
+ * Micro benchmark of the {@link CpuBlur} layouts, packed, planar and banded, on the same images.
+ * All three give identical output, so only the time differs.
+ *
+ * Run the {@code main} method from the test classes, {@code --sizes} sets the image sizes in
+ * megapixels, {@code --radius} the blur radius and {@code --runs} how many runs the best time is
+ * taken over.
+ */
+public final class CpuBlurBenchmark {
+
+    public static final int[] DEFAULT_MEGAPIXELS = {1, 4, 12};
+    public static final int DEFAULT_RUNS = 5;
+
+    /**
+     * Rows per band of the banded layout, the same as the CPU engine uses
+     */
+    public static final int BAND_HEIGHT = 64;
+
+    public enum Layout {
+        PACKED, PLANAR, BANDED
+    }
+
+    /**
+     * Time one blur
+     *
+     * @param image ~ Image to blur, left untouched
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param radius ~ Blur radius
+     * @param layout ~ Layout to blur in
+     * @return Wall time in milliseconds
+     */
+    public static double time(int[] image, int width, int height, int radius, Layout layout) {
+        final int[] pixels = image.clone();
+        final long start = System.nanoTime();
+        switch (layout) {
+            case PACKED:
+                CpuBlur.blurPacked(pixels, width, height, radius);
+                break;
+            case PLANAR:
+                CpuBlur.blurPlanar(pixels, width, height, radius);
+                break;
+            case BANDED:
+                CpuBlur.blurBanded(pixels, width, height, radius, Math.max(BAND_HEIGHT, radius),
+                        () -> {
+                        });
+                break;
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_MEGAPIXELS;
+        int radius = CpuBlur.DEFAULT_RADIUS;
+        int runs = DEFAULT_RUNS;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    final String[] values = args[++i].split(",");
+                    sizes = new int[values.length];
+                    for (int j = 0; j < values.length; j++) {
+                        sizes[j] = Integer.parseInt(values[j].trim());
+                    }
+                    break;
+                case "--radius":
+                    radius = Integer.parseInt(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        System.out.println(String.format("radius %d, best of %d runs after 2 warm-up runs",
+                radius, runs));
+        System.out.println(String.format("%-5s%10s%10s%10s", "size", "packed", "planar",
+                "banded"));
+        for (int megapixels : sizes) {
+            final Pixels pixels = SyntheticCorpus.create(megapixels, false);
+            final int width = pixels.getWidth();
+            final int height = pixels.getHeight();
+            final int[] image = pixels.getArgb();
+
+            final StringBuilder line = new StringBuilder(String.format("%2d MP", megapixels));
+            for (Layout layout : Layout.values()) {
+                // Warm up the JIT so the measured runs aren't interpreted
+                for (int i = 0; i < 2; i++) {
+                    time(image, width, height, radius, layout);
+                }
+                line.append(String.format("  %5.0f ms",
+                        best(image, width, height, radius, layout, runs)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static double best(int[] image, int width, int height, int radius, Layout layout,
+            int runs) {
+        final double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            times[i] = time(image, width, height, radius, layout);
+        }
+        Arrays.sort(times);
+        return times[0];
+    }
+
+    // Disallow instantiation
+    private CpuBlurBenchmark() {
+    }
+}
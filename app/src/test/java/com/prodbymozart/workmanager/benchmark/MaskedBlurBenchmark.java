@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.benchmark;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.blur.MaskedBlur;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.util.Arrays;
+
+/**
+ * Micro benchmark of {@link MaskedBlur} against blurring the whole image, at a mask covering 1%,
+ * 10% and 100% of the image. The mask is a single rectangle in the middle of the image.
+ *
+ * Run the {@code main} method from the test classes, {@code --megapixels} sets the image size
+ * and {@code --runs} how many runs the median is taken over.
+ */
+public final class MaskedBlurBenchmark {
+
+    public static final double[] COVERAGES = {0.01, 0.1, 1.0};
+
+    public static final int DEFAULT_MEGAPIXELS = 12;
+    public static final int DEFAULT_RUNS = 5;
+
+    /**
+     * Time one masked blur
+     *
+     * @param image ~ Image to blur, left untouched
+     * @param width ~ Width of the image
+     * @param height ~ Height of the image
+     * @param coverage ~ Fraction of the image covered by the mask, 0 for no mask at all
+     * @param planar ~ True to blur by way of channel planes
+     * @return Wall time in milliseconds
+     */
+    public static double time(int[] image, int width, int height, double coverage,
+            boolean planar) {
+        final int[] pixels = image.clone();
+        final long start = System.nanoTime();
+        if (coverage <= 0) {
+            if (planar) {
+                CpuBlur.blurPlanar(pixels, width, height, CpuBlur.DEFAULT_RADIUS);
+            } else {
+                CpuBlur.blurPacked(pixels, width, height, CpuBlur.DEFAULT_RADIUS);
+            }
+        } else {
+            MaskedBlur.blur(pixels, width, height, CpuBlur.DEFAULT_RADIUS,
+                    mask(width, height, coverage), planar, () -> {
+                    });
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * @return A rectangle in the middle of the image covering the given fraction of it
+     */
+    static int[] mask(int width, int height, double coverage) {
+        final double side = Math.sqrt(coverage);
+        final int maskWidth = (int) Math.round(width * side);
+        final int maskHeight = (int) Math.round(height * side);
+        final int left = (width - maskWidth) / 2;
+        final int top = (height - maskHeight) / 2;
+        return new int[]{left, top, left + maskWidth, top + maskHeight};
+    }
+
+    public static void main(String[] args) {
+        int megapixels = DEFAULT_MEGAPIXELS;
+        int runs = DEFAULT_RUNS;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--megapixels":
+                    megapixels = Integer.parseInt(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final Pixels pixels = SyntheticCorpus.create(megapixels, false);
+        final int width = pixels.getWidth();
+        final int height = pixels.getHeight();
+        final int[] image = pixels.getArgb();
+
+        // Warm up the JIT so the first measured runs aren't interpreted
+        for (int i = 0; i < 3; i++) {
+            time(image, width, height, 0.1, true);
+            time(image, width, height, 0, true);
+        }
+
+        System.out.println(String.format("%d MP, radius %d, median of %d runs", megapixels,
+                CpuBlur.DEFAULT_RADIUS, runs));
+        for (boolean planar : new boolean[]{false, true}) {
+            final String layout = planar ? "planar" : "packed";
+            System.out.println(String.format("%s whole image: %.0f ms", layout,
+                    median(image, width, height, 0, planar, runs)));
+            for (double coverage : COVERAGES) {
+                System.out.println(String.format("%s mask %.0f%% (%.0f%% of tiles): %.0f ms",
+                        layout, coverage * 100,
+                        MaskedBlur.coverage(width, height, mask(width, height, coverage)) * 100,
+                        median(image, width, height, coverage, planar, runs)));
+            }
+        }
+    }
+
+    private static double median(int[] image, int width, int height, double coverage,
+            boolean planar, int runs) {
+        final double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            times[i] = time(image, width, height, coverage, planar);
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    }
+
+    // Disallow instantiation
+    private MaskedBlurBenchmark() {
+    }
+}
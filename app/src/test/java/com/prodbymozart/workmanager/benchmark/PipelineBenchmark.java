@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.benchmark;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.core.BlurPipeline;
+import com.prodbymozart.workmanager.workers.core.CleanupPipeline;
+import com.prodbymozart.workmanager.workers.core.CpuBlurEngine;
+import com.prodbymozart.workmanager.workers.core.InMemoryPixelStore;
+import com.prodbymozart.workmanager.workers.core.PixelSink;
+import com.prodbymozart.workmanager.workers.core.Pixels;
+import com.prodbymozart.workmanager.workers.core.ProgressReporter;
+import com.prodbymozart.workmanager.workers.core.SavePipeline;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Macro benchmark of the whole flow {@code BlurViewModel#applyBlur3} enqueues: cleanup, n blurs
+ * and a save, run on the JVM against {@link InMemoryPixelStore}s standing in for the output
+ * directory and the gallery.
+ *
+ * Every image of the {@link SyntheticCorpus} is run at every blur level. The blurs are set up like
+ * in the app, so large images are blurred in a {@code PixelBuffer} spilled to a temporary
+ * directory. Blurring again and again converges on a flat image, whose outputs would be found by
+ * their content keys and reused, so every blur writes under a key of its own and really runs.
+ * Per run it records:
+ *
+ * - {@code wall_ms}: wall time of the whole flow
+ * - {@code alloc_mb} and {@code alloc_mb_per_s}: heap allocated by the flow, in total and per
+ * second, where the JVM can tell
+ * - {@code bytes_written}: bytes written to the output directory and the gallery
+ * - {@code peak_heap_mb}: the most heap in use while the flow ran, sampled
+ * - {@code outputs_reused}: blurs that reused an earlier output instead of running, expected to
+ * stay 0
+ *
+ * Each case is run several times and the median of each metric is kept. Results are compared
+ * against a baseline file and the run fails when any metric grew by more than the threshold, or
+ * when there is no baseline to compare against. The allocation rate is recorded but not checked,
+ * a faster run allocates at a higher rate for the same work.
+ *
+ * Run with {@code ./gradlew :app:pipelineBenchmark}, which checks against
+ * {@code app/benchmark/baseline.json}, or {@code ./gradlew :app:pipelineBenchmark -Precord} to
+ * write that baseline instead. Run directly, {@code --baseline} names the baseline file,
+ * {@code --record} writes it instead of checking it, {@code --threshold} sets the allowed growth,
+ * {@code --sizes} and {@code --levels} take comma separated lists to run a subset and
+ * {@code --runs} sets how many runs the median of each metric is taken over.
+ */
+public final class PipelineBenchmark {
+
+    /**
+     * Blur levels offered by BlurActivity
+     */
+    public static final int[] DEFAULT_LEVELS = {1, 10, 50};
+
+    public static final double DEFAULT_THRESHOLD = 0.15;
+
+    /**
+     * Runs per case, the median of each metric is kept
+     */
+    public static final int DEFAULT_RUNS = 3;
+
+    /**
+     * Recorded but not checked, see the class documentation
+     */
+    private static final String UNGATED_METRIC = "alloc_mb_per_s";
+
+    /**
+     * Output budget passed to the cleanup, matching {@code Constants#OUTPUT_MAX_BYTES}
+     */
+    private static final long OUTPUT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 5;
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Run the flow for one image and blur level
+     *
+     * @param megapixels ~ Size of the image
+     * @param alpha ~ True for an image with varying alpha
+     * @param level ~ Number of blurs
+     * @return Metrics by name
+     * @throws IOException If the pipelines fail
+     */
+    public static Map<String, Double> run(int megapixels, boolean alpha, int level)
+            throws IOException {
+        // The input lives apart from the outputs, like a picked image does, so the cleanup
+        // can't drop an input larger than the output budget
+        final InMemoryPixelStore inputs = new InMemoryPixelStore();
+        final InMemoryPixelStore outputs = new InMemoryPixelStore();
+        final InMemoryPixelStore gallery = new InMemoryPixelStore();
+        final Pixels image = SyntheticCorpus.create(megapixels, alpha);
+        final long imageBytes = 4L * image.getWidth() * image.getHeight();
+        String uri = inputs.put(SyntheticCorpus.name(megapixels, alpha), image);
+        final UniqueKeySink sink = new UniqueKeySink(outputs);
+        final File spillDirectory = Files.createTempDirectory("pipeline-benchmark").toFile();
+
+        System.gc();
+        final HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+
+        try {
+            new CleanupPipeline(outputs).run(OUTPUT_MAX_BYTES);
+            final CpuBlurEngine engine = new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS);
+            final BlurPipeline first = new BlurPipeline(inputs, sink, engine,
+                    ProgressReporter.NONE, BlurPipeline.DEFAULT_BUFFER_THRESHOLD, spillDirectory);
+            final BlurPipeline blur = new BlurPipeline(outputs, sink, engine,
+                    ProgressReporter.NONE, BlurPipeline.DEFAULT_BUFFER_THRESHOLD, spillDirectory);
+            for (int i = 0; i < level; i++) {
+                uri = (i == 0 ? first : blur).run(uri);
+
+                // Only the latest output is read again. Dropping the rest keeps the heap bounded,
+                // on a device they would be files.
+                outputs.trim(2 * imageBytes + 8);
+            }
+            new SavePipeline(outputs, gallery, ProgressReporter.NONE).run(uri);
+        } finally {
+            spillDirectory.delete();
+        }
+
+        final long wallNanos = System.nanoTime() - start;
+        final long allocatedAfter = allocatedBytes();
+        final long peakHeap = sampler.finish();
+
+        final Map<String, Double> metrics = new TreeMap<>();
+        metrics.put("wall_ms", (double) Math.round(wallNanos / 1e6));
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            final double allocatedMb = (allocatedAfter - allocatedBefore) / MB;
+            metrics.put("alloc_mb", (double) Math.round(allocatedMb));
+            metrics.put(UNGATED_METRIC, (double) Math.round(allocatedMb / (wallNanos / 1e9)));
+        }
+        metrics.put("bytes_written", (double) (outputs.bytesWritten() + gallery.bytesWritten()));
+        metrics.put("peak_heap_mb", (double) Math.round(peakHeap / MB));
+        metrics.put("outputs_reused", (double) (level - outputs.writes()));
+        return metrics;
+    }
+
+    /**
+     * Run every image at every level
+     *
+     * @param sizes ~ Image sizes in megapixels
+     * @param levels ~ Blur levels
+     * @param runs ~ Runs per case, the median of each metric is kept
+     * @return Metrics by {@code <image>_x<level>.<metric>}
+     * @throws IOException If the pipelines fail
+     */
+    public static Map<String, Double> runAll(int[] sizes, int[] levels, int runs)
+            throws IOException {
+        // Warm up the JIT on a small case so the first measured runs aren't interpreted
+        for (boolean alpha : new boolean[]{false, true}) {
+            run(1, alpha, 10);
+        }
+
+        final Map<String, Double> results = new TreeMap<>();
+        for (int size : sizes) {
+            for (boolean alpha : new boolean[]{false, true}) {
+                for (int level : levels) {
+                    final String name = SyntheticCorpus.name(size, alpha) + "_x" + level;
+                    final Map<String, Double> metrics = median(size, alpha, level, runs);
+                    System.out.println(name + " " + metrics);
+                    for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                        results.put(name + "." + metric.getKey(), metric.getValue());
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File baselineFile = new File("benchmark/baseline.json");
+        double threshold = DEFAULT_THRESHOLD;
+        boolean record = false;
+        int[] sizes = SyntheticCorpus.DEFAULT_MEGAPIXELS;
+        int[] levels = DEFAULT_LEVELS;
+        int runs = DEFAULT_RUNS;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline":
+                    baselineFile = new File(args[++i]);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--record":
+                    record = true;
+                    break;
+                case "--sizes":
+                    sizes = parseInts(args[++i]);
+                    break;
+                case "--levels":
+                    levels = parseInts(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        // Without a baseline every run would pass, so one has to be recorded on purpose
+        if (!record && !baselineFile.exists()) {
+            System.out.println("No baseline at " + baselineFile + ", run with --record first");
+            System.exit(2);
+        }
+
+        final Map<String, Double> results = runAll(sizes, levels, runs);
+        if (record) {
+            Baseline.write(baselineFile, results);
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+
+        final List<String> regressions =
+                Baseline.regressions(Baseline.read(baselineFile), gated(results), threshold);
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions against " + baselineFile);
+            return;
+        }
+        for (String regression : regressions) {
+            System.out.println("REGRESSION " + regression);
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Run one case a number of times
+     *
+     * @return Median of each metric
+     */
+    private static Map<String, Double> median(int megapixels, boolean alpha, int level,
+            int runs) throws IOException {
+        final Map<String, List<Double>> samples = new TreeMap<>();
+        for (int i = 0; i < runs; i++) {
+            for (Map.Entry<String, Double> metric : run(megapixels, alpha, level).entrySet()) {
+                List<Double> values = samples.get(metric.getKey());
+                if (values == null) {
+                    values = new ArrayList<>();
+                    samples.put(metric.getKey(), values);
+                }
+                values.add(metric.getValue());
+            }
+        }
+
+        final Map<String, Double> medians = new TreeMap<>();
+        for (Map.Entry<String, List<Double>> entry : samples.entrySet()) {
+            final List<Double> values = entry.getValue();
+            Collections.sort(values);
+            medians.put(entry.getKey(), values.get(values.size() / 2));
+        }
+        return medians;
+    }
+
+    /**
+     * @return The results that are checked against the baseline
+     */
+    private static Map<String, Double> gated(Map<String, Double> results) {
+        final Map<String, Double> gated = new TreeMap<>();
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            if (!entry.getKey().endsWith("." + UNGATED_METRIC)) {
+                gated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return gated;
+    }
+
+    private static int[] parseInts(String list) {
+        final String[] parts = list.split(",");
+        final int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, read through the HotSpot thread bean
+     *
+     * @return Allocated bytes, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof ThreadMXBean)) return -1;
+        return ((ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Gives every output a key of its own, so no blur is skipped for an earlier output with the
+     * same content. Keys are still computed and looked up like in the app.
+     */
+    private static final class UniqueKeySink implements PixelSink {
+        private final PixelSink mSink;
+        private int mOutputs;
+
+        UniqueKeySink(PixelSink sink) {
+            mSink = sink;
+        }
+
+        @Override
+        public boolean usesKeys() {
+            return mSink.usesKeys();
+        }
+
+        @Override
+        public String find(String key) {
+            return mSink.find(unique(key));
+        }
+
+        @Override
+        public String write(String key, Pixels pixels) throws IOException {
+            final String uri = mSink.write(unique(key), pixels);
+            mOutputs++;
+            return uri;
+        }
+
+        @Override
+        public int trim(long maxBytes) {
+            return mSink.trim(maxBytes);
+        }
+
+        private String unique(String key) {
+            return key == null ? null : mOutputs + ":" + key;
+        }
+    }
+
+    /**
+     * Samples the heap in use on its own thread and keeps the highest value
+     */
+    private static final class HeapSampler extends Thread {
+        private volatile boolean mRunning = true;
+        private volatile long mPeak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final Runtime runtime = Runtime.getRuntime();
+            while (mRunning) {
+                mPeak = Math.max(mPeak, runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long finish() {
+            mRunning = false;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final Runtime runtime = Runtime.getRuntime();
+            return Math.max(mPeak, runtime.totalMemory() - runtime.freeMemory());
+        }
+    }
+
+    // Disallow instantiation
+    private PipelineBenchmark() {
+    }
+}
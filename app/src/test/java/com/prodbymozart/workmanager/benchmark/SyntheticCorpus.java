@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.benchmark;
+
+import com.prodbymozart.workmanager.workers.core.Pixels;
+
+import java.util.Random;
+
+/**
+ * Generates the images the benchmarks run on, so results don't depend on which photos happen to
+ * be around.
+ *
+ * Images have a 4:3 aspect ratio and contain smooth gradients with noise on top, which is closer
+ * to a photo than a flat color. Opaque images have full alpha everywhere, alpha images have an
+ * alpha gradient. The same size and kind always give the same pixels.
+ */
+public final class SyntheticCorpus {
+
+    /**
+     * Image sizes in megapixels, from a small photo up to a high end sensor
+     */
+    public static final int[] DEFAULT_MEGAPIXELS = {1, 4, 12, 48};
+
+    /**
+     * Create an image
+     *
+     * @param megapixels ~ Size of the image
+     * @param alpha ~ True for an image with varying alpha, false for an opaque one
+     * @return The image
+     */
+    public static Pixels create(int megapixels, boolean alpha) {
+        final long pixels = megapixels * 1000000L;
+        final int width = (int) Math.round(Math.sqrt(pixels * 4 / 3.0));
+        final int height = (int) (pixels / width);
+        final int[] argb = new int[width * height];
+        final Random random = new Random(megapixels * 31L + (alpha ? 1 : 0));
+
+        for (int y = 0; y < height; y++) {
+            final int row = y * width;
+            final int g = y * 255 / height;
+            for (int x = 0; x < width; x++) {
+                final int noise = random.nextInt(32) - 16;
+                final int r = clamp(x * 255 / width + noise);
+                final int b = clamp((x + y) * 255 / (width + height) - noise);
+                final int a = alpha ? clamp(255 - (x + y) * 255 / (width + height)) : 0xFF;
+                argb[row + x] = a << 24 | r << 16 | clamp(g + noise) << 8 | b;
+            }
+        }
+        return new Pixels(argb, width, height);
+    }
+
+    /**
+     * @return Name of an image, used in the names of its results
+     */
+    public static String name(int megapixels, boolean alpha) {
+        return (alpha ? "alpha_" : "opaque_") + megapixels + "mp";
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(value, 255));
+    }
+
+    // Disallow instantiation
+    private SyntheticCorpus() {
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.core.ContentHash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SignatureCache}, in particular that every lookup is counted exactly once.
+ */
+public class SignatureCacheTest {
+
+    private int mOpens;
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+        mOpens = 0;
+    }
+
+    @Test
+    public void countsAMissAndThenOneHitPerLookup() throws IOException {
+        final SignatureCache cache = new SignatureCache(4);
+        final String signature = cache.signature("a", content("a"));
+        assertEquals(ContentHash.of("a".getBytes(StandardCharsets.UTF_8)), signature);
+        assertEquals(0, Metrics.get(SignatureCache.METRIC_HIT));
+        assertEquals(1, Metrics.get(SignatureCache.METRIC_MISS));
+
+        // The fast path of a preview load, then a load that goes through the hashing path
+        assertEquals(signature, cache.lookup("a"));
+        assertEquals(signature, cache.signature("a", content("a")));
+        assertEquals(2, Metrics.get(SignatureCache.METRIC_HIT));
+        assertEquals(1, Metrics.get(SignatureCache.METRIC_MISS));
+        assertEquals(1, mOpens);
+    }
+
+    @Test
+    public void failedLookupsWithoutHashingAreNotCounted() {
+        final SignatureCache cache = new SignatureCache(4);
+        assertNull(cache.lookup("a"));
+        assertEquals(0, Metrics.get(SignatureCache.METRIC_HIT));
+        assertEquals(0, Metrics.get(SignatureCache.METRIC_MISS));
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedSignatures() throws IOException {
+        final SignatureCache cache = new SignatureCache(2);
+        cache.signature("a", content("a"));
+        cache.signature("b", content("b"));
+        cache.lookup("a");
+        cache.signature("c", content("c"));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.lookup("b"));
+        assertEquals(ContentHash.of("a".getBytes(StandardCharsets.UTF_8)), cache.lookup("a"));
+
+        cache.trimToSize(0);
+        assertEquals(0, cache.size());
+    }
+
+    private SignatureCache.Content content(String text) {
+        return () -> {
+            mOpens++;
+            return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OutputIndex}: lookups, least recently used eviction, and reading the index
+ * back from disk, including an index file that was cut short or corrupted. Trimming is what a
+ * {@code CleanupWorker} runs against the output directory.
+ */
+public class OutputIndexTest {
+
+    private static final int OUTPUT_SIZE = 10;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("outputs").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void findsRecordedOutputs() throws IOException {
+        final OutputIndex index = new OutputIndex(mDirectory);
+        final File output = output("a.png");
+        index.record("a", output);
+
+        assertEquals(output, index.lookup("a"));
+        assertNull(index.lookup("b"));
+        assertTrue(index.contains("a.png"));
+        assertFalse(index.contains("b.png"));
+    }
+
+    @Test
+    public void forgetsOutputsDeletedBehindItsBack() throws IOException {
+        final OutputIndex index = new OutputIndex(mDirectory);
+        final File output = output("a.png");
+        index.record("a", output);
+        output.delete();
+
+        assertNull(index.lookup("a"));
+        assertFalse(index.contains("a.png"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() throws IOException {
+        final OutputIndex index = new OutputIndex(mDirectory);
+        index.record("a", output("a.png"));
+        index.record("b", output("b.png"));
+        index.record("c", output("c.png"));
+        index.lookup("a");
+
+        assertEquals(Collections.singletonList("b.png"), index.evict(2 * OUTPUT_SIZE));
+        assertFalse(new File(mDirectory, "b.png").exists());
+        assertEquals(Arrays.asList("c.png", "a.png"), index.evict(0));
+        assertEquals(Collections.emptyList(), index.evict(0));
+    }
+
+    @Test
+    public void reloadsInAccessOrder() throws IOException {
+        final OutputIndex index = new OutputIndex(mDirectory);
+        index.record("a", output("a.png"));
+        index.record("b", output("b.png"));
+        index.record("c", output("c.png"));
+        index.lookup("a");
+
+        final OutputIndex reloaded = new OutputIndex(mDirectory);
+        assertEquals(new File(mDirectory, "c.png"), reloaded.lookup("c"));
+        assertEquals(Arrays.asList("b.png", "a.png"), reloaded.evict(OUTPUT_SIZE));
+    }
+
+    @Test
+    public void skipsTruncatedLines() throws IOException {
+        output("a.png");
+        output("b.png");
+        writeIndex("a\ta.png\t10\t1\nb\tb.png\t10\t2\nc\tc.p");
+
+        final OutputIndex index = new OutputIndex(mDirectory);
+        assertEquals(new File(mDirectory, "a.png"), index.lookup("a"));
+        assertEquals(new File(mDirectory, "b.png"), index.lookup("b"));
+        assertNull(index.lookup("c"));
+    }
+
+    @Test
+    public void skipsCorruptLines() throws IOException {
+        output("a.png");
+        output("b.png");
+        writeIndex("a\ta.png\tten\t1\n\u0000\u00ff garbage\nb\tb.png\t10\t2\n\n");
+
+        final OutputIndex index = new OutputIndex(mDirectory);
+        assertNull(index.lookup("a"));
+        assertEquals(new File(mDirectory, "b.png"), index.lookup("b"));
+
+        // The corrupt lines are gone once the index is written again
+        final OutputIndex reloaded = new OutputIndex(mDirectory);
+        assertEquals(Collections.singletonList("b.png"), reloaded.evict(0));
+    }
+
+    @Test
+    public void trimDeletesStaleLeftoversAndEvictsLeastRecentlyUsed() throws IOException {
+        final OutputIndex index = new OutputIndex(mDirectory);
+        index.record("a", output("a.jpg"));
+        index.record("b", output("b.jpg"));
+        index.record("c", output("c.jpg"));
+        index.lookup("a");
+
+        // Leftovers of a crashed chain, one still being written, and an unrelated file
+        final long longAgo = System.currentTimeMillis() - 3600 * 1000;
+        assertTrue(output("lost.jpg").setLastModified(longAgo));
+        assertTrue(output("blur-output-1.tmp").setLastModified(longAgo));
+        output("blur-output-2.tmp");
+        assertTrue(output("notes.txt").setLastModified(longAgo));
+
+        final List<String> deleted =
+                index.trim(2 * OUTPUT_SIZE, System.currentTimeMillis() - 60 * 1000);
+        assertEquals(new HashSet<>(Arrays.asList("lost.jpg", "blur-output-1.tmp", "b.jpg")),
+                new HashSet<>(deleted));
+        assertEquals(new HashSet<>(Arrays.asList("a.jpg", "c.jpg", "blur-output-2.tmp",
+                "notes.txt", OutputIndex.INDEX_FILE_NAME)),
+                new HashSet<>(Arrays.asList(mDirectory.list())));
+    }
+
+    @Test
+    public void startsEmptyWithoutAnIndexFile() {
+        final OutputIndex index = new OutputIndex(new File(mDirectory, "missing"));
+        assertNull(index.lookup("a"));
+        assertEquals(Collections.emptyList(), index.evict(0));
+    }
+
+    private File output(String name) throws IOException {
+        final File file = new File(mDirectory, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[OUTPUT_SIZE]);
+        }
+        return file;
+    }
+
+    private void writeIndex(String content) throws IOException {
+        Files.write(new File(mDirectory, OutputIndex.INDEX_FILE_NAME).toPath(),
+                content.getBytes(StandardCharsets.UTF_8));
+    }
+}
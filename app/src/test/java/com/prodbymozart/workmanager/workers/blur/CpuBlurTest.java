@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.blur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Golden-output tests for {@link CpuBlur}. Every layout is checked against a naive reference
+ * that averages each clamped window with exact integer rounding.
+ */
+public class CpuBlurTest {
+
+    /**
+     * Sizes that put the clamped edges everywhere: a single pixel, single rows and columns,
+     * images narrower than the window, and one large enough to have a steady state.
+     */
+    private static final int[][] SIZES = {
+            {1, 1}, {1, 9}, {9, 1}, {2, 3}, {5, 4}, {7, 7}, {16, 11}, {64, 48}
+    };
+
+    /**
+     * Radii for which the fixed-point reciprocal rounds exactly like integer division.
+     */
+    private static final int[] EXACT_RADII = {0, 1, 2, 3, 10};
+
+    @Test
+    public void packedMatchesReference() {
+        for (int[] size : SIZES) {
+            for (int radius : EXACT_RADII) {
+                final int[] pixels = image(size[0], size[1]);
+                final int[] expected = reference(pixels, size[0], size[1], radius);
+                CpuBlur.blurPacked(pixels, size[0], size[1], radius);
+                assertArrayEquals(describe(size, radius), expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void planarMatchesReference() {
+        for (int[] size : SIZES) {
+            for (int radius : EXACT_RADII) {
+                final int[] pixels = image(size[0], size[1]);
+                final int[] expected = reference(pixels, size[0], size[1], radius);
+                CpuBlur.blurPlanar(pixels, size[0], size[1], radius);
+                assertArrayEquals(describe(size, radius), expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void planarWithReusedPlanesMatchesReference() {
+        // Largest first, so later images only use the start of the planes
+        final CpuBlur.Planes planes = new CpuBlur.Planes();
+        for (int i = SIZES.length - 1; i >= 0; i--) {
+            final int[] size = SIZES[i];
+            for (int radius : EXACT_RADII) {
+                final int[] pixels = image(size[0], size[1]);
+                final int[] expected = reference(pixels, size[0], size[1], radius);
+                CpuBlur.blurPlanar(pixels, size[0], size[1], radius, planes);
+                assertArrayEquals(describe(size, radius), expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void bandedMatchesReference() {
+        for (int[] size : SIZES) {
+            for (int radius : EXACT_RADII) {
+                for (int band : new int[]{Math.max(radius, 1), radius + 3, 64}) {
+                    final int[] pixels = image(size[0], size[1]);
+                    final int[] expected = reference(pixels, size[0], size[1], radius);
+                    CpuBlur.blurBanded(pixels, size[0], size[1], radius, band, () -> {
+                    });
+                    assertArrayEquals(describe(size, radius) + " band " + band, expected,
+                            pixels);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bandedDirectBufferMatchesReference() {
+        final int width = 37, height = 29, radius = 3;
+        final int[] pixels = image(width, height);
+        final int[] expected = reference(pixels, width, height, radius);
+
+        final IntBuffer buffer = ByteBuffer.allocateDirect(pixels.length * 4).asIntBuffer();
+        buffer.put(pixels).rewind();
+        CpuBlur.blurBanded(buffer, width, height, radius, 8, () -> {
+        });
+
+        final int[] actual = new int[pixels.length];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void largeRadiusStaysWithinRounding() {
+        // Above a radius of 10 the fixed-point reciprocal can round one step off in each pass
+        final int width = 40, height = 30, radius = CpuBlur.MAX_RADIUS;
+        final int[] pixels = image(width, height);
+        final int[] expected = reference(pixels, width, height, radius);
+        final int[] planar = pixels.clone();
+        CpuBlur.blurPacked(pixels, width, height, radius);
+        CpuBlur.blurPlanar(planar, width, height, radius);
+
+        assertArrayEquals(pixels, planar);
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                final int e = (expected[i] >>> shift) & 0xFF;
+                final int a = (pixels[i] >>> shift) & 0xFF;
+                assertEquals("pixel " + i, e, a, 2);
+            }
+        }
+    }
+
+    @Test
+    public void radiusZeroLeavesPixelsUnchanged() {
+        final int[] pixels = image(13, 7);
+        final int[] original = pixels.clone();
+        CpuBlur.blurPacked(pixels, 13, 7, 0);
+        CpuBlur.blurPlanar(pixels, 13, 7, 0);
+        CpuBlur.blurBanded(pixels, 13, 7, 0, 4, () -> {
+        });
+        assertArrayEquals(original, pixels);
+    }
+
+    @Test
+    public void flatImageStaysFlatAtTheEdges() {
+        final int[] pixels = new int[6 * 5];
+        Arrays.fill(pixels, 0x80402010);
+        final int[] original = pixels.clone();
+        CpuBlur.blurPlanar(pixels, 6, 5, 4);
+        assertArrayEquals(original, pixels);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRadiusIsRejected() {
+        CpuBlur.blurPacked(new int[4], 2, 2, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void radiusAboveMaximumIsRejected() {
+        CpuBlur.blurPlanar(new int[4], 2, 2, CpuBlur.MAX_RADIUS + 1);
+    }
+
+    /**
+     * Separable box blur written the obvious way: each pass averages the clamped window around
+     * a pixel and rounds to the nearest byte, like the two passes of {@link CpuBlur} do.
+     */
+    private static int[] reference(int[] pixels, int width, int height, int radius) {
+        final int[] horizontal = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                horizontal[y * width + x] = average(pixels, width, height, x, y, radius, true);
+            }
+        }
+        final int[] out = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                out[y * width + x] = average(horizontal, width, height, x, y, radius, false);
+            }
+        }
+        return out;
+    }
+
+    private static int average(int[] pixels, int width, int height, int x, int y, int radius,
+            boolean horizontal) {
+        final int window = 2 * radius + 1;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = 0;
+            for (int k = -radius; k <= radius; k++) {
+                final int sx = horizontal ? clamp(x + k, width) : x;
+                final int sy = horizontal ? y : clamp(y + k, height);
+                sum += (pixels[sy * width + sx] >>> shift) & 0xFF;
+            }
+            result |= ((sum + window / 2) / window) << shift;
+        }
+        return result;
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(index, length - 1));
+    }
+
+    private static int[] image(int width, int height) {
+        final Random random = new Random(width * 31L + height);
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static String describe(int[] size, int radius) {
+        return size[0] + "x" + size[1] + " radius " + radius;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link BlurPipeline} on the JVM against an {@link InMemoryPixelStore}.
+ */
+public class BlurPipelineTest {
+
+    private InMemoryPixelStore mStore;
+    private CountingEngine mEngine;
+    private RecordingProgressReporter mReporter;
+    private BlurPipeline mPipeline;
+    private String mInput;
+
+    @Before
+    public void setUp() {
+        mStore = new InMemoryPixelStore();
+        mEngine = new CountingEngine();
+        mReporter = new RecordingProgressReporter();
+        mPipeline = new BlurPipeline(mStore, mStore, mEngine, mReporter);
+        mInput = mStore.put("input", image(32, 24));
+    }
+
+    @Test
+    public void blursAndWritesTheOutput() throws Exception {
+        final String output = mPipeline.run(mInput);
+
+        final int[] expected = image(32, 24).getArgb();
+        CpuBlur.blurPacked(expected, 32, 24, CpuBlur.DEFAULT_RADIUS);
+        assertArrayEquals(expected, mStore.decode(mStore.read(output)).getArgb());
+        assertEquals(1, mEngine.mBlurs);
+        assertEquals(1, mStore.writes());
+    }
+
+    @Test
+    public void reusesTheOutputOfIdenticalContent() throws Exception {
+        final String first = mPipeline.run(mInput);
+
+        // Same content under another name still hits the earlier output
+        final String copy = mStore.put("copy", image(32, 24));
+        final String second = mPipeline.run(copy);
+
+        assertEquals(first, second);
+        assertEquals(1, mEngine.mBlurs);
+        assertEquals(1, mStore.writes());
+    }
+
+    @Test
+    public void engineNameIsPartOfTheKey() throws Exception {
+        final String first = mPipeline.run(mInput);
+        final BlurPipeline other = new BlurPipeline(mStore, mStore,
+                new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS + 1), ProgressReporter.NONE);
+
+        assertNotEquals(first, other.run(mInput));
+        assertEquals(2, mStore.writes());
+    }
+
+    @Test
+    public void sampledDecodeIsWrittenUnderItsOwnKey() throws Exception {
+        mStore.setDecodeSampleSize(2);
+        final String sampled = mPipeline.run(mInput);
+
+        // A later full size decode must not reuse the smaller output
+        mStore.setDecodeSampleSize(1);
+        assertEquals(16 * 12, mStore.decode(mStore.read(sampled)).getArgb().length);
+        final String full = mPipeline.run(mInput);
+
+        assertNotEquals(sampled, full);
+        assertEquals(32 * 24, mStore.decode(mStore.read(full)).getArgb().length);
+        assertEquals(2, mEngine.mBlurs);
+    }
+
+    @Test
+    public void fallbackIsWrittenUnderTheNameOfWhatRan() throws Exception {
+        final BlurEngine fallback = new BlurEngine() {
+            @Override
+            public String name() {
+                return "gpu";
+            }
+
+            @Override
+            public String blur(Pixels pixels) {
+                try {
+                    return CpuBlurEngine.blurOffHeap(pixels, CpuBlur.DEFAULT_RADIUS, null);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        final String degraded =
+                new BlurPipeline(mStore, mStore, fallback, ProgressReporter.NONE).run(mInput);
+
+        // The output is exactly what the CPU engine gives, so the CPU engine reuses it, while
+        // the engine that fell back doesn't
+        assertEquals(degraded, mPipeline.run(mInput));
+        assertEquals(0, mEngine.mBlurs);
+        assertNull(mStore.find(ContentHash.outputKey(mStore.read(mInput), BlurPipeline.STAGE_BLUR,
+                "gpu")));
+    }
+
+    @Test
+    public void reportsEveryStep() throws Exception {
+        mPipeline.run(mInput);
+        assertEquals(Arrays.asList(BlurPipeline.STAGE_READ, BlurPipeline.STAGE_BLUR,
+                BlurPipeline.STAGE_WRITE, BlurPipeline.STAGE_DONE), mReporter.stages());
+        assertEquals(Arrays.asList("0/3", "1/3", "2/3", "3/3"), mReporter.steps());
+    }
+
+    @Test
+    public void reportsOnlyReadAndDoneWhenReusing() throws Exception {
+        mPipeline.run(mInput);
+        final RecordingProgressReporter reporter = new RecordingProgressReporter();
+        new BlurPipeline(mStore, mStore, mEngine, reporter).run(mInput);
+
+        assertEquals(Arrays.asList(BlurPipeline.STAGE_READ, BlurPipeline.STAGE_DONE),
+                reporter.stages());
+        assertEquals(Arrays.asList("0/3", "3/3"), reporter.steps());
+    }
+
+    static Pixels image(int width, int height) {
+        final int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xFF000000 | (i * 7919) & 0xFFFFFF;
+        }
+        return new Pixels(argb, width, height);
+    }
+
+    /**
+     * Packed CPU blur that counts how often it ran
+     */
+    private static final class CountingEngine implements BlurEngine {
+        private final CpuBlurEngine mDelegate = new CpuBlurEngine(false, CpuBlur.DEFAULT_RADIUS);
+        private int mBlurs;
+
+        @Override
+        public String name() {
+            return mDelegate.name();
+        }
+
+        @Override
+        public String blur(Pixels pixels) {
+            mBlurs++;
+            return mDelegate.blur(pixels);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link Pixels} kept in a {@link PixelBuffer}, like a bitmap on Android. Unpacking them onto the
+ * heap fails, so tests can tell the pipeline never did.
+ */
+public final class BufferPixels extends Pixels {
+
+    private final PixelBuffer mBuffer;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer ~ Pixels of the image, owned by this object from now on
+     */
+    public BufferPixels(PixelBuffer buffer) {
+        super(buffer.getWidth(), buffer.getHeight(), 1);
+        mBuffer = buffer;
+    }
+
+    @Override
+    public int[] getArgb() {
+        throw new UnsupportedOperationException("Pixels were unpacked onto the heap");
+    }
+
+    @Override
+    public PixelBuffer copyToBuffer(File spillDirectory) throws IOException {
+        final PixelBuffer copy = PixelBuffer.allocate(getWidth(), getHeight(), spillDirectory);
+        copy.getBuffer().put(mBuffer.getBuffer());
+        return copy;
+    }
+
+    @Override
+    public void copyFromBuffer(PixelBuffer buffer) {
+        mBuffer.getBuffer().put(buffer.getBuffer());
+    }
+
+    /**
+     * @return The buffer holding the pixels
+     */
+    public PixelBuffer getBuffer() {
+        return mBuffer;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link CleanupPipeline}, what a {@code CleanupWorker} does, against an
+ * {@link InMemoryPixelStore}: outputs that were used recently survive, the rest are dropped
+ * least recently used first.
+ */
+public class CleanupPipelineTest {
+
+    private static final int OUTPUTS = 6;
+
+    /**
+     * Size of one stored output: the header and the pixels of an 8x8 image
+     */
+    private static final long OUTPUT_BYTES = 8 + 4 * 8 * 8;
+
+    private InMemoryPixelStore mStore;
+
+    @Before
+    public void setUp() {
+        mStore = new InMemoryPixelStore();
+        for (int i = 0; i < OUTPUTS; i++) {
+            mStore.write("output" + i, BlurPipelineTest.image(8, 8));
+        }
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedOutputs() throws Exception {
+        // Use the two oldest outputs again, which makes 2, 3 and 4 the least recently used
+        mStore.read(InMemoryPixelStore.SCHEME + "output0");
+        assertNotNull(mStore.find("output1"));
+
+        assertEquals(3, new CleanupPipeline(mStore).run(3 * OUTPUT_BYTES));
+        assertEquals(3, mStore.size());
+        for (int i : new int[]{2, 3, 4}) {
+            assertNull("output" + i, mStore.find("output" + i));
+        }
+        for (int i : new int[]{0, 1, 5}) {
+            assertNotNull("output" + i, mStore.find("output" + i));
+        }
+    }
+
+    @Test
+    public void keepsEverythingWithinTheBudget() {
+        assertEquals(0, new CleanupPipeline(mStore).run(OUTPUTS * OUTPUT_BYTES));
+        assertEquals(OUTPUTS, mStore.size());
+    }
+
+    @Test
+    public void dropsEverythingWithoutABudget() {
+        assertEquals(OUTPUTS, new CleanupPipeline(mStore).run(0));
+        assertEquals(0, mStore.size());
+    }
+}
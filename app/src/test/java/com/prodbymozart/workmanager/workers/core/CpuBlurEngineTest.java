@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the fallback {@link CpuBlurEngine} offers engines that ran out of memory. The pixels
+ * are {@link BufferPixels}, so unpacking them onto the heap would fail the test.
+ */
+public class CpuBlurEngineTest {
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void fallbackBlursWithoutUnpackingThePixels() throws IOException {
+        final int width = 300, height = 200;
+        final int[] expected = image(width, height);
+        final BufferPixels pixels = bufferPixels(expected, width, height, null);
+        CpuBlur.blurPacked(expected, width, height, CpuBlur.DEFAULT_RADIUS);
+
+        assertEquals(new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS).name(),
+                CpuBlurEngine.blurOffHeap(pixels, CpuBlur.DEFAULT_RADIUS, null));
+        assertArrayEquals(expected, read(pixels));
+        assertEquals(1, Metrics.get(CpuBlurEngine.METRIC_DEGRADE_BANDED));
+        pixels.getBuffer().close();
+        assertEquals(0, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+    }
+
+    @Test
+    public void fallbackSpillsLargeImagesAndCleansUp() throws IOException {
+        // Just above the mapped threshold, so the copy the fallback makes is a spill file
+        final int width = 1024;
+        final int height = (int) (PixelBuffer.MAPPED_THRESHOLD / 4 / width) + 1;
+        final int[] expected = image(width, height);
+        final BufferPixels pixels = bufferPixels(expected, width, height, null);
+        CpuBlur.blurPacked(expected, width, height, CpuBlur.DEFAULT_RADIUS);
+
+        final File spillDirectory = Files.createTempDirectory("spill").toFile();
+        try {
+            CpuBlurEngine.blurOffHeap(pixels, CpuBlur.DEFAULT_RADIUS, spillDirectory);
+            assertArrayEquals(expected, read(pixels));
+            assertEquals(0, spillDirectory.list().length);
+        } finally {
+            pixels.getBuffer().close();
+            spillDirectory.delete();
+        }
+    }
+
+    private static BufferPixels bufferPixels(int[] argb, int width, int height,
+            File spillDirectory) throws IOException {
+        final PixelBuffer buffer = PixelBuffer.allocate(width, height, spillDirectory);
+        buffer.getPixels().put(argb);
+        return new BufferPixels(buffer);
+    }
+
+    private static int[] read(BufferPixels pixels) {
+        final int[] argb = new int[pixels.getWidth() * pixels.getHeight()];
+        pixels.getBuffer().getPixels().get(argb);
+        return argb;
+    }
+
+    private static int[] image(int width, int height) {
+        final int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = (i * 7919) ^ (i << 13);
+        }
+        return argb;
+    }
+}
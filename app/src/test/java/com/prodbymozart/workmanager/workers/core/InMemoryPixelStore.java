@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link PixelSource} and {@link PixelSink} kept entirely in memory, for running pipelines on the
+ * JVM without a ContentResolver or a file system.
+ *
+ * Images are stored in a trivial encoding (width, height, then the ARGB ints), so every output is
+ * readable again as an input and a whole chain of pipelines can run against one store.
+ */
+public final class InMemoryPixelStore implements PixelSource, PixelSink {
+
+    /**
+     * Scheme of the Uris handed out by the store
+     */
+    public static final String SCHEME = "memory:";
+
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * Encoded images by Uri, in access order so {@link #trim(long)} drops the least recently used
+     */
+    private final LinkedHashMap<String, byte[]> mImages = new LinkedHashMap<>(16, 0.75f, true);
+
+    private volatile long mReadDelayMillis;
+    private volatile int mDecodeSampleSize = 1;
+    private int mReads;
+    private int mWrites;
+    private long mBytesWritten;
+
+    /**
+     * Put an input image into the store
+     *
+     * @param name ~ Name of the image
+     * @param pixels ~ Pixels of the image
+     * @return Uri of the image
+     */
+    public synchronized String put(String name, Pixels pixels) {
+        final String uri = SCHEME + name;
+        mImages.put(uri, encode(pixels));
+        return uri;
+    }
+
+    /**
+     * Make every read take at least this long, to stand in for a slow provider or SD card
+     *
+     * @param millis ~ Delay per read
+     */
+    public void setReadDelayMillis(long millis) {
+        mReadDelayMillis = millis;
+    }
+
+    /**
+     * Make every decode come out this many times smaller, to stand in for a decode that ran out
+     * of memory
+     *
+     * @param sampleSize ~ Sample size of every decode, 1 for full size
+     */
+    public void setDecodeSampleSize(int sampleSize) {
+        mDecodeSampleSize = sampleSize;
+    }
+
+    @Override
+    public byte[] read(String uri) throws IOException {
+        final long delay = mReadDelayMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + uri);
+            }
+        }
+
+        synchronized (this) {
+            final byte[] content = mImages.get(uri);
+            if (content == null) throw new FileNotFoundException("No image " + uri);
+            mReads++;
+            return content;
+        }
+    }
+
+    @Override
+    public Pixels decode(byte[] content) throws IOException {
+        if (content.length < HEADER_BYTES) throw new IOException("Truncated image");
+
+        final ByteBuffer buffer = ByteBuffer.wrap(content);
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        if (content.length != HEADER_BYTES + 4L * width * height) {
+            throw new IOException("Invalid image size " + width + "x" + height);
+        }
+
+        final int[] argb = new int[width * height];
+        buffer.asIntBuffer().get(argb);
+
+        final int sampleSize = mDecodeSampleSize;
+        if (sampleSize == 1) return new Pixels(argb, width, height);
+
+        // Keep every n-th pixel of every n-th row, like a sampled decode
+        final int sampledWidth = Math.max(width / sampleSize, 1);
+        final int sampledHeight = Math.max(height / sampleSize, 1);
+        final int[] sampled = new int[sampledWidth * sampledHeight];
+        for (int y = 0; y < sampledHeight; y++) {
+            for (int x = 0; x < sampledWidth; x++) {
+                sampled[y * sampledWidth + x] = argb[y * sampleSize * width + x * sampleSize];
+            }
+        }
+        return new Pixels(sampled, sampledWidth, sampledHeight, sampleSize);
+    }
+
+    @Override
+    public boolean usesKeys() {
+        return true;
+    }
+
+    @Override
+    public synchronized String find(String key) {
+        final String uri = SCHEME + key;
+        return mImages.get(uri) == null ? null : uri;
+    }
+
+    @Override
+    public synchronized String write(String key, Pixels pixels) {
+        mWrites++;
+        final String uri = put(key, pixels);
+        mBytesWritten += mImages.get(uri).length;
+        return uri;
+    }
+
+    @Override
+    public synchronized int trim(long maxBytes) {
+        long total = 0;
+        for (byte[] content : mImages.values()) {
+            total += content.length;
+        }
+
+        int dropped = 0;
+        final Iterator<Map.Entry<String, byte[]>> iterator = mImages.entrySet().iterator();
+        while (total > maxBytes && iterator.hasNext()) {
+            total -= iterator.next().getValue().length;
+            iterator.remove();
+            dropped++;
+        }
+        return dropped;
+    }
+
+    /**
+     * @return Number of images in the store
+     */
+    public synchronized int size() {
+        return mImages.size();
+    }
+
+    /**
+     * @return Number of successful {@link #read(String)} calls
+     */
+    public synchronized int reads() {
+        return mReads;
+    }
+
+    /**
+     * @return Number of {@link #write(String, Pixels)} calls
+     */
+    public synchronized int writes() {
+        return mWrites;
+    }
+
+    /**
+     * @return Total size of everything written through {@link #write(String, Pixels)}
+     */
+    public synchronized long bytesWritten() {
+        return mBytesWritten;
+    }
+
+    private static byte[] encode(Pixels pixels) {
+        final int[] argb = pixels.getArgb();
+        final int size = pixels.getWidth() * pixels.getHeight();
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * size);
+        buffer.putInt(pixels.getWidth()).putInt(pixels.getHeight());
+        buffer.asIntBuffer().put(argb, 0, size);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+import com.prodbymozart.workmanager.workers.blur.MaskedBlur;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MaskedBlurEngine} applies its mask at the size the image was decoded at.
+ */
+public class MaskedBlurEngineTest {
+
+    @Test
+    public void scalesTheMaskOutwards() {
+        assertArrayEquals(new int[]{1, 2, 3, 4},
+                MaskedBlurEngine.scale(new int[]{3, 5, 5, 7}, 2));
+        assertArrayEquals(new int[]{0, 0, 2, 1},
+                MaskedBlurEngine.scale(new int[]{-3, 0, 8, 1}, 4));
+        assertArrayEquals(new int[]{0, 0, Integer.MAX_VALUE / 2 + 1, 1},
+                MaskedBlurEngine.scale(new int[]{0, 0, Integer.MAX_VALUE, 2}, 2));
+    }
+
+    @Test
+    public void fullSizeMaskIsUsedAsItIs() {
+        final int[] mask = {10, 10, 40, 30};
+        final Pixels pixels = BlurPipelineTest.image(96, 64);
+        final int[] expected = pixels.getArgb().clone();
+        MaskedBlur.blur(expected, 96, 64, CpuBlur.DEFAULT_RADIUS, mask, false, () -> {
+        });
+
+        new MaskedBlurEngine(false, CpuBlur.DEFAULT_RADIUS, mask).blur(pixels);
+        assertArrayEquals(expected, pixels.getArgb());
+    }
+
+    @Test
+    public void sampledDecodeBlursTheSameArea() {
+        // Decoded at half the size, the mask of the full size image covers half the pixels
+        final Pixels full = BlurPipelineTest.image(96, 64);
+        final Pixels sampled = new Pixels(full.getArgb().clone(), 96, 64, 2);
+        final int[] expected = full.getArgb().clone();
+        MaskedBlur.blur(expected, 96, 64, CpuBlur.DEFAULT_RADIUS, new int[]{10, 10, 40, 30},
+                false, () -> {
+                });
+
+        new MaskedBlurEngine(false, CpuBlur.DEFAULT_RADIUS, new int[]{20, 20, 80, 60})
+                .blur(sampled);
+        assertArrayEquals(expected, sampled.getArgb());
+    }
+}
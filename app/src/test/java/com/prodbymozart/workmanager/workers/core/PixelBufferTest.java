@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PixelBuffer}s release what they hold and that {@link BlurPipeline} blurs large
+ * images in one without putting them on the heap.
+ */
+public class PixelBufferTest {
+
+    private File mSpillDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        Metrics.reset();
+        mSpillDirectory = Files.createTempDirectory("spill").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        mSpillDirectory.delete();
+    }
+
+    @Test
+    public void smallBuffersStayInDirectMemory() throws IOException {
+        try (PixelBuffer buffer = PixelBuffer.allocate(16, 16, mSpillDirectory)) {
+            assertFalse(buffer.isMapped());
+            assertEquals(16 * 16 * 4, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+        }
+        assertEquals(0, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+    }
+
+    @Test
+    public void largeBuffersLeaveNoFileBehind() throws IOException {
+        final int height = (int) (PixelBuffer.MAPPED_THRESHOLD / 4 / 1024) + 1;
+        final PixelBuffer buffer = PixelBuffer.allocate(1024, height, mSpillDirectory);
+        try {
+            assertTrue(buffer.isMapped());
+            buffer.getPixels().put(0, 42);
+            assertEquals(42, buffer.getPixels().get(0));
+        } finally {
+            buffer.close();
+        }
+        assertEquals(0, mSpillDirectory.list().length);
+        assertEquals(0, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedBuffersCannotBeUsed() throws IOException {
+        final PixelBuffer buffer = PixelBuffer.allocate(4, 4, null);
+        buffer.close();
+        buffer.getBuffer();
+    }
+
+    @Test
+    public void pipelineBlursLargeImagesInABuffer() throws IOException {
+        final Pixels image = BlurPipelineTest.image(96, 64);
+        final int[] expected = image.getArgb().clone();
+        CpuBlur.blurPacked(expected, 96, 64, CpuBlur.DEFAULT_RADIUS);
+
+        final InMemoryPixelStore store = new InMemoryPixelStore();
+        final String output = new BlurPipeline(store, store,
+                new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS), ProgressReporter.NONE, 1024,
+                mSpillDirectory).run(store.put("input", image));
+
+        assertArrayEquals(expected, store.decode(store.read(output)).getArgb());
+        assertEquals(0, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+    }
+
+    @Test
+    public void heapStaysFlatFor48Megapixels() throws IOException {
+        final com.sun.management.ThreadMXBean threads = allocationCounter();
+        assumeTrue(threads != null);
+
+        final int width = 8000, height = 6000;
+        final PixelBuffer pixels = PixelBuffer.allocate(width, height, mSpillDirectory);
+        final IntBuffer argb = pixels.getPixels();
+        for (int i = 0; i < width * height; i++) {
+            argb.put(0xFF000000 | (i * 7919) & 0xFFFFFF);
+        }
+        final BufferPixels image = new BufferPixels(pixels);
+        final PixelSource source = new PixelSource() {
+            @Override
+            public byte[] read(String uri) {
+                return uri.getBytes();
+            }
+
+            @Override
+            public Pixels decode(byte[] content) {
+                return image;
+            }
+        };
+        final Pixels[] written = new Pixels[1];
+        final PixelSink sink = new PixelSink() {
+            @Override
+            public boolean usesKeys() {
+                return false;
+            }
+
+            @Override
+            public String find(String key) {
+                return null;
+            }
+
+            @Override
+            public String write(String key, Pixels blurred) {
+                written[0] = blurred;
+                return "blurred";
+            }
+
+            @Override
+            public int trim(long maxBytes) {
+                return 0;
+            }
+        };
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        new BlurPipeline(source, sink, new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS),
+                ProgressReporter.NONE, BlurPipeline.DEFAULT_BUFFER_THRESHOLD, mSpillDirectory)
+                .run("image");
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        try {
+            // The image is 183 MB, the blur only ever holds a band of rows on the heap
+            assertTrue("allocated " + allocated + " bytes", allocated < 16 * 1024 * 1024);
+            assertTrue(written[0] == image);
+            assertEquals(0, mSpillDirectory.list().length);
+        } finally {
+            pixels.close();
+        }
+        assertEquals(0, Metrics.get(PixelBuffer.METRIC_LIVE_BYTES));
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            final com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return threads.isThreadAllocatedMemorySupported() ? threads : null;
+        } catch (ClassCastException | NoClassDefFoundError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.prodbymozart.workmanager.metrics.Metrics;
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link Prefetcher} against an {@link InMemoryPixelStore} that stands in for a slow
+ * provider.
+ */
+public class PrefetcherTest {
+
+    private static final long READ_DELAY_MILLIS = 100;
+    private static final long COMPUTE_MILLIS = 150;
+
+    private InMemoryPixelStore mStore;
+    private List<String> mUris;
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+        mStore = new InMemoryPixelStore();
+        mUris = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            mUris.add(mStore.put("image" + i, BlurPipelineTest.image(8 + i, 8)));
+        }
+    }
+
+    @Test
+    public void readsOverlapWithCompute() throws Exception {
+        mStore.setReadDelayMillis(READ_DELAY_MILLIS);
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            prefetcher.enqueue(mUris);
+            for (String uri : mUris) {
+                prefetcher.read(uri);
+                Thread.sleep(COMPUTE_MILLIS);
+            }
+
+            // Only the first read is waited for, the others were read during the compute
+            final long waited = TimeUnit.NANOSECONDS.toMillis(prefetcher.getIoWaitNanos());
+            assertTrue("waited " + waited + " ms", waited < 2 * READ_DELAY_MILLIS);
+            assertTrue(Metrics.get(Prefetcher.METRIC_HIT) >= mUris.size() - 1);
+        }
+    }
+
+    @Test
+    public void pipelineOnlyWaitsForTheFirstRead() throws Exception {
+        mStore.setReadDelayMillis(READ_DELAY_MILLIS);
+        final List<Long> waits = new ArrayList<>();
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            prefetcher.enqueue(mUris);
+            for (String uri : mUris) {
+                final RecordingProgressReporter reporter = new RecordingProgressReporter();
+                new BlurPipeline(prefetcher, mStore, new SlowEngine(), reporter).run(uri);
+                waits.add(TimeUnit.NANOSECONDS.toMillis(
+                        reporter.nanosBetween(BlurPipeline.STAGE_READ, BlurPipeline.STAGE_BLUR)));
+            }
+        }
+
+        // The pipeline waits for most of the first read, which had only just started. The
+        // later images were read while the image before them was blurred.
+        assertTrue("waited " + waits, waits.get(0) >= READ_DELAY_MILLIS / 2);
+        for (int i = 1; i < waits.size(); i++) {
+            assertTrue("waited " + waits, waits.get(i) < READ_DELAY_MILLIS / 2);
+        }
+    }
+
+    @Test
+    public void returnsTheSameContentAsTheSource() throws Exception {
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            prefetcher.enqueue(mUris);
+            for (String uri : mUris) {
+                assertArrayEquals(mStore.read(uri), prefetcher.read(uri));
+            }
+        }
+    }
+
+    @Test
+    public void duplicateUrisAreReadAheadOnce() throws Exception {
+        final String first = mUris.get(0);
+        final String second = mUris.get(1);
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            prefetcher.enqueue(Arrays.asList(first, first, second));
+            prefetcher.enqueue(Arrays.asList(first, second));
+            prefetcher.read(first);
+            prefetcher.read(second);
+        }
+        assertEquals(2, mStore.reads());
+        assertEquals(2, Metrics.get(Prefetcher.METRIC_HIT) + Metrics.get(Prefetcher.METRIC_MISS));
+    }
+
+    @Test
+    public void readsImagesThatWereNotQueuedOnTheCallingThread() throws Exception {
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            assertArrayEquals(mStore.read(mUris.get(2)), prefetcher.read(mUris.get(2)));
+        }
+        assertEquals(1, Metrics.get(Prefetcher.METRIC_MISS));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void readErrorsReachTheCaller() throws Exception {
+        try (Prefetcher prefetcher = new Prefetcher(mStore, 2, Long.MAX_VALUE)) {
+            prefetcher.enqueue(Arrays.asList(InMemoryPixelStore.SCHEME + "missing"));
+            prefetcher.read(InMemoryPixelStore.SCHEME + "missing");
+        }
+    }
+
+    /**
+     * Blur that takes {@link #COMPUTE_MILLIS}, like a large image would
+     */
+    private static final class SlowEngine implements BlurEngine {
+        private final CpuBlurEngine mDelegate = new CpuBlurEngine(true, CpuBlur.DEFAULT_RADIUS);
+
+        @Override
+        public String name() {
+            return mDelegate.name();
+        }
+
+        @Override
+        public String blur(Pixels pixels) {
+            try {
+                Thread.sleep(COMPUTE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return mDelegate.blur(pixels);
+        }
+    }
+}
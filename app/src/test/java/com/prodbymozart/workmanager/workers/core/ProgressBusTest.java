@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ProgressBus} delivers per job and only keeps progress of unfinished jobs.
+ */
+public class ProgressBusTest {
+
+    private final ProgressBus mBus = new ProgressBus();
+
+    @Test
+    public void deliversOnlyToListenersOfTheJob() {
+        final List<JobProgress> received = new ArrayList<>();
+        mBus.subscribe("a", received::add);
+        mBus.publish(progress("a", JobProgress.State.RUNNING));
+        mBus.publish(progress("b", JobProgress.State.RUNNING));
+
+        assertEquals(1, received.size());
+        assertEquals("a", received.get(0).getJobId());
+    }
+
+    @Test
+    public void lateListenersStartFromTheLatestProgress() {
+        mBus.publish(progress("a", JobProgress.State.ENQUEUED));
+        mBus.publish(progress("a", JobProgress.State.RUNNING));
+
+        final List<JobProgress> received = new ArrayList<>();
+        mBus.subscribe("a", received::add);
+        assertEquals(1, received.size());
+        assertEquals(JobProgress.State.RUNNING, received.get(0).getState());
+    }
+
+    @Test
+    public void finishedJobsAreDropped() {
+        mBus.publish(progress("a", JobProgress.State.RUNNING));
+        mBus.publish(progress("a", JobProgress.State.SUCCEEDED));
+        assertEquals(0, mBus.activeJobs());
+    }
+
+    @Test
+    public void replacedJobsAreCancelledAndDropped() {
+        final List<JobProgress> received = new ArrayList<>();
+        mBus.subscribe("a", received::add);
+        for (String jobId : new String[]{"a", "b", "c"}) {
+            mBus.replace("chain", progress(jobId, JobProgress.State.ENQUEUED));
+            mBus.publish(progress(jobId, JobProgress.State.RUNNING));
+        }
+
+        // Only the job that still owns the chain is kept
+        assertEquals(1, mBus.activeJobs());
+        assertEquals(JobProgress.State.CANCELLED, received.get(received.size() - 1).getState());
+    }
+
+    @Test
+    public void jobsUnderOtherNamesAreKept() {
+        mBus.replace("one", progress("a", JobProgress.State.ENQUEUED));
+        mBus.replace("other", progress("b", JobProgress.State.ENQUEUED));
+        assertEquals(2, mBus.activeJobs());
+    }
+
+    private static JobProgress progress(String jobId, JobProgress.State state) {
+        return new JobProgress(jobId, state, 0, 1, null);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link ProgressReporter} that remembers every report, for checking pipelines on the JVM.
+ */
+public final class RecordingProgressReporter implements ProgressReporter {
+
+    private final List<String> mStages = new ArrayList<>();
+    private final List<String> mSteps = new ArrayList<>();
+    private final List<Long> mTimes = new ArrayList<>();
+
+    @Override
+    public synchronized void onProgress(String stage, int step, int steps) {
+        mStages.add(stage);
+        mSteps.add(step + "/" + steps);
+        mTimes.add(System.nanoTime());
+    }
+
+    /**
+     * @return Every reported stage, in order
+     */
+    public synchronized List<String> stages() {
+        return Collections.unmodifiableList(new ArrayList<>(mStages));
+    }
+
+    /**
+     * @return Every reported step as {@code step/steps}, in order
+     */
+    public synchronized List<String> steps() {
+        return Collections.unmodifiableList(new ArrayList<>(mSteps));
+    }
+
+    /**
+     * @param from ~ Stage the interval starts at
+     * @param to ~ Stage the interval ends at
+     * @return Nanoseconds between the first reports of the two stages, or -1 if either is missing
+     */
+    public synchronized long nanosBetween(String from, String to) {
+        final int start = mStages.indexOf(from);
+        final int end = mStages.indexOf(to);
+        if (start < 0 || end < 0) return -1;
+        return mTimes.get(end) - mTimes.get(start);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link SavePipeline} on the JVM against {@link InMemoryPixelStore}s.
+ */
+public class SavePipelineTest {
+
+    private InMemoryPixelStore mOutputs;
+    private InMemoryPixelStore mGallery;
+    private String mInput;
+
+    @Before
+    public void setUp() {
+        mOutputs = new InMemoryPixelStore();
+        mGallery = new InMemoryPixelStore();
+        mInput = mOutputs.put("output", BlurPipelineTest.image(20, 10));
+    }
+
+    @Test
+    public void copiesTheImageIntoTheSink() throws Exception {
+        final String saved =
+                new SavePipeline(mOutputs, mGallery, ProgressReporter.NONE).run(mInput);
+
+        assertArrayEquals(BlurPipelineTest.image(20, 10).getArgb(),
+                mGallery.decode(mGallery.read(saved)).getArgb());
+        assertEquals(1, mGallery.writes());
+        assertEquals(0, mOutputs.writes());
+    }
+
+    @Test
+    public void failsInsteadOfSavingASmallerImage() throws Exception {
+        mOutputs.setDecodeSampleSize(2);
+        try {
+            new SavePipeline(mOutputs, mGallery, ProgressReporter.NONE).run(mInput);
+            fail("Saved a sampled decode");
+        } catch (IOException expected) {
+            assertEquals(0, mGallery.writes());
+        }
+    }
+
+    @Test
+    public void keyIsTheContentHash() throws Exception {
+        final String saved =
+                new SavePipeline(mOutputs, mGallery, ProgressReporter.NONE).run(mInput);
+        assertEquals(InMemoryPixelStore.SCHEME + ContentHash.of(mOutputs.read(mInput)), saved);
+    }
+
+    @Test
+    public void skipsTheKeyWhenTheSinkIgnoresIt() throws Exception {
+        final String[] key = {"unset"};
+        final PixelSink sink = new PixelSink() {
+            @Override
+            public boolean usesKeys() {
+                return false;
+            }
+
+            @Override
+            public String find(String key) {
+                return null;
+            }
+
+            @Override
+            public String write(String writeKey, Pixels pixels) {
+                key[0] = writeKey;
+                return "saved";
+            }
+
+            @Override
+            public int trim(long maxBytes) {
+                return 0;
+            }
+        };
+
+        assertEquals("saved", new SavePipeline(mOutputs, sink, ProgressReporter.NONE).run(mInput));
+        assertNull(key[0]);
+    }
+
+    @Test
+    public void reportsEveryStep() throws Exception {
+        final RecordingProgressReporter reporter = new RecordingProgressReporter();
+        new SavePipeline(mOutputs, mGallery, reporter).run(mInput);
+
+        assertEquals(Arrays.asList(SavePipeline.STAGE_READ, SavePipeline.STAGE_SAVE,
+                SavePipeline.STAGE_DONE), reporter.stages());
+        assertEquals(Arrays.asList("0/2", "1/2", "2/2"), reporter.steps());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.prodbymozart.workmanager.workers.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the cost thresholds of {@link SchedulingPolicy} and the constraints they lead to.
+ */
+public class SchedulingPolicyTest {
+
+    private final SchedulingPolicy mPolicy = new SchedulingPolicy(100, 1000, 4000);
+
+    @Test
+    public void cheapJobsRunRightAway() {
+        final SchedulingPolicy.Decision decision = mPolicy.decide(10, 10, 1);
+
+        assertEquals(SchedulingPolicy.Cost.CHEAP, decision.getCost());
+        assertEquals(100, decision.getEstimatedPixels());
+        assertFalse(decision.requiresCharging());
+        assertFalse(decision.requiresDeviceIdle());
+        assertFalse(decision.requiresBatteryNotLow());
+        assertEquals(LaneScheduler.Lane.INTERACTIVE, decision.getLane());
+    }
+
+    @Test
+    public void moderateJobsWaitForBattery() {
+        // One pixel over the cheap threshold
+        final SchedulingPolicy.Decision decision = mPolicy.decide(101, 1, 1);
+
+        assertEquals(SchedulingPolicy.Cost.MODERATE, decision.getCost());
+        assertFalse(decision.requiresCharging());
+        assertFalse(decision.requiresDeviceIdle());
+        assertTrue(decision.requiresBatteryNotLow());
+        assertEquals(LaneScheduler.Lane.INTERACTIVE, decision.getLane());
+    }
+
+    @Test
+    public void moderateUpToTheExpensiveThreshold() {
+        assertEquals(SchedulingPolicy.Cost.MODERATE, mPolicy.decide(10, 10, 10).getCost());
+        assertEquals(SchedulingPolicy.Cost.EXPENSIVE, mPolicy.decide(10, 10, 11).getCost());
+    }
+
+    @Test
+    public void expensiveJobsWaitForChargingAndIdleInTheBackground() {
+        final SchedulingPolicy.Decision decision = mPolicy.decide(10, 10, 50);
+
+        assertEquals(SchedulingPolicy.Cost.EXPENSIVE, decision.getCost());
+        assertEquals(5000, decision.getEstimatedPixels());
+        assertTrue(decision.requiresCharging());
+        assertTrue(decision.requiresDeviceIdle());
+        assertEquals(LaneScheduler.Lane.BACKGROUND, decision.getLane());
+    }
+
+    @Test
+    public void passesMultiplyTheCost() {
+        assertEquals(SchedulingPolicy.Cost.CHEAP, mPolicy.decide(5, 5, 4).getCost());
+        assertEquals(SchedulingPolicy.Cost.MODERATE, mPolicy.decide(5, 5, 5).getCost());
+
+        // Zero passes still count as one
+        assertEquals(25, mPolicy.decide(5, 5, 0).getEstimatedPixels());
+    }
+
+    @Test
+    public void imagesOfAJobAddUp() {
+        // Two images of 60 pixels are as expensive as one of 120
+        assertEquals(SchedulingPolicy.Cost.MODERATE, mPolicy.decide(60L + 60L, 1).getCost());
+        assertEquals(120, mPolicy.decide(60L + 60L, 1).getEstimatedPixels());
+        assertEquals(SchedulingPolicy.Cost.UNKNOWN, mPolicy.decide(0L, 1).getCost());
+    }
+
+    @Test
+    public void storageOnlyForLargeOutputs() {
+        // 10x10 at 2 bytes per pixel, for 9 passes and the save: 2000 bytes
+        assertFalse(mPolicy.decide(10, 10, 9).requiresStorageNotLow());
+
+        // 20 passes and the save: 4200 bytes
+        assertTrue(mPolicy.decide(10, 10, 20).requiresStorageNotLow());
+    }
+
+    @Test
+    public void unknownSizeKeepsTheOldDefaults() {
+        final SchedulingPolicy.Decision decision = mPolicy.decide(0, 0, 1);
+
+        assertEquals(SchedulingPolicy.Cost.UNKNOWN, decision.getCost());
+        assertTrue(decision.requiresCharging());
+        assertTrue(decision.requiresStorageNotLow());
+        assertFalse(decision.requiresDeviceIdle());
+        assertFalse(decision.requiresBatteryNotLow());
+        assertEquals(LaneScheduler.Lane.BACKGROUND, decision.getLane());
+    }
+
+    @Test
+    public void defaultThresholds() {
+        // A 12 MP photo blurred once is cheap, forty times moderate and fifty times expensive
+        final int width = 4000, height = 3000;
+        assertEquals(SchedulingPolicy.Cost.CHEAP,
+                SchedulingPolicy.DEFAULT.decide(width, height, 1).getCost());
+        assertEquals(SchedulingPolicy.Cost.MODERATE,
+                SchedulingPolicy.DEFAULT.decide(width, height, 40).getCost());
+        assertEquals(SchedulingPolicy.Cost.EXPENSIVE,
+                SchedulingPolicy.DEFAULT.decide(width, height, 50).getCost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedThresholds() {
+        new SchedulingPolicy(1000, 100, 0);
+    }
+}
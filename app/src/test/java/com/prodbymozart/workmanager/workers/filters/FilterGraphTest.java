@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 Mozart Alexander Louis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.prodbymozart.workmanager.workers.filters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.prodbymozart.workmanager.workers.blur.CpuBlur;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link FilterGraph}: parsing, and that fusing point filters and running
+ * neighbourhood filters tile by tile give the same output as running every filter over the
+ * whole image on its own.
+ */
+public class FilterGraphTest {
+
+    /**
+     * Not a multiple of the tile size, so there are partial tiles on the right and bottom
+     */
+    private static final int WIDTH = FilterGraph.TILE_SIZE * 2 + 37;
+    private static final int HEIGHT = FilterGraph.TILE_SIZE + 91;
+
+    @Test
+    public void normalizesTheSpec() {
+        assertEquals("blur:5,sharpen:1.0", FilterGraph.parse("blur:5,sharpen").toString());
+        assertEquals("blur:5,sharpen:1.0",
+                FilterGraph.parse(" BLUR : 5 , sharpen:1 ,").toString());
+        assertEquals("blur:" + CpuBlur.DEFAULT_RADIUS + ",grayscale,vignette:0.6",
+                FilterGraph.parse("blur,Grayscale,vignette:0.60").toString());
+    }
+
+    @Test
+    public void keepsTheOrderOfTheChain() {
+        assertEquals("grayscale,blur:2,sepia,sharpen:0.5",
+                FilterGraph.parse("grayscale,blur:2,sepia,sharpen:0.5").toString());
+    }
+
+    @Test
+    public void emptySpecsHaveNoFilters() {
+        assertTrue(FilterGraph.parse(null).isEmpty());
+        assertTrue(FilterGraph.parse("").isEmpty());
+        assertTrue(FilterGraph.parse(" , ,").isEmpty());
+        assertEquals("", FilterGraph.parse(" , ,").toString());
+    }
+
+    @Test
+    public void splitsIntoPasses() {
+        assertEquals(1, FilterGraph.parse("blur:3,sharpen,grayscale,vignette").passCount());
+        assertEquals(1, FilterGraph.parse("grayscale,sepia").passCount());
+        assertEquals(2, FilterGraph.parse("grayscale,blur").passCount());
+        assertEquals(3, FilterGraph.parse("blur,sepia,sharpen,grayscale,blur").passCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFilters() {
+        FilterGraph.parse("blur,emboss");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsParametersThatAreNoNumber() {
+        FilterGraph.parse("blur:three");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlurRadiusOutOfRange() {
+        FilterGraph.parse("blur:" + (CpuBlur.MAX_RADIUS + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsVignetteStrengthOutOfRange() {
+        FilterGraph.parse("vignette:1.5");
+    }
+
+    @Test
+    public void fusedPointFiltersMatchSeparatePasses() {
+        final int[] pixels = image(WIDTH, HEIGHT);
+        final int[] expected = pixels.clone();
+        applyPoint(new GrayscaleFilter(), expected, WIDTH, HEIGHT);
+        applyPoint(new VignetteFilter(0.6f), expected, WIDTH, HEIGHT);
+        applyPoint(new SepiaFilter(), expected, WIDTH, HEIGHT);
+
+        FilterGraph.parse("grayscale,vignette:0.6,sepia").run(pixels, WIDTH, HEIGHT);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void tiledMatchesWholeImage() {
+        final int[] pixels = image(WIDTH, HEIGHT);
+        final int[] expected = pixels.clone();
+        CpuBlur.blurPlanar(expected, WIDTH, HEIGHT, 4);
+        new SharpenFilter(1f).apply(expected, WIDTH, HEIGHT);
+        applyPoint(new GrayscaleFilter(), expected, WIDTH, HEIGHT);
+        applyPoint(new VignetteFilter(0.5f), expected, WIDTH, HEIGHT);
+
+        FilterGraph.parse("blur:4,sharpen,grayscale,vignette").run(pixels, WIDTH, HEIGHT);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void passesMatchWholeImage() {
+        final int[] pixels = image(WIDTH, HEIGHT);
+        final int[] expected = pixels.clone();
+        applyPoint(new SepiaFilter(), expected, WIDTH, HEIGHT);
+        CpuBlur.blurPlanar(expected, WIDTH, HEIGHT, 2);
+        applyPoint(new GrayscaleFilter(), expected, WIDTH, HEIGHT);
+        CpuBlur.blurPlanar(expected, WIDTH, HEIGHT, 5);
+
+        FilterGraph.parse("sepia,blur:2,grayscale,blur:5").run(pixels, WIDTH, HEIGHT);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void reusedGraphMatchesFreshGraph() {
+        // The filters keep scratch memory between tiles and runs, a smaller image after a
+        // larger one must not pick up anything from it
+        final FilterGraph graph = FilterGraph.parse("blur:3,sharpen:2,vignette");
+        graph.run(image(WIDTH, HEIGHT), WIDTH, HEIGHT);
+
+        final int[] pixels = image(97, 41);
+        final int[] expected = pixels.clone();
+        FilterGraph.parse("blur:3,sharpen:2,vignette").run(expected, 97, 41);
+        graph.run(pixels, 97, 41);
+        assertArrayEquals(expected, pixels);
+    }
+
+    private static void applyPoint(PointFilter filter, int[] pixels, int width, int height) {
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                pixels[i] = filter.apply(pixels[i], x, y, width, height);
+            }
+        }
+    }
+
+    private static int[] image(int width, int height) {
+        final Random random = new Random(width * 31L + height);
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}